@@ -43,6 +43,7 @@ public class AgentManager {
 	 */
 	protected static void initInstance() {
 		getInstance().addAgent(new NotifyUsersAboutPraiseAgent());
+		getInstance().addAgent(new FlushWriteBehindQueueAgent());
 	}
 
 	/**
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.WriteBehindQueue;
+
+import java.util.logging.Logger;
+
+/**
+ * An agent class to write all pending objects of the WriteBehindQueue, so that they reach the datastore within the
+ * cron interval even if no further writes trigger a flush.
+ */
+public class FlushWriteBehindQueueAgent extends Agent {
+
+	public static final String NAME = "flushWriteBehindQueue";
+
+	private static final Logger log = Logger.getLogger(FlushWriteBehindQueueAgent.class.getName());
+
+	public FlushWriteBehindQueueAgent() {
+		initialize(NAME);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRun() {
+		WriteBehindQueue queue = WriteBehindQueue.getInstance();
+		log.config(LogBuilder.createSystemMessage().addParameter("pending objects", queue.getSize()).toString());
+		queue.flush();
+	}
+
+}
@@ -22,11 +22,13 @@ package org.wahlzeit.handlers;
 
 import org.wahlzeit.model.Client;
 import org.wahlzeit.model.ModelConfig;
+import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.webparts.FragmentCache;
 import org.wahlzeit.webparts.WebPart;
 
 /**
@@ -69,8 +71,14 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 
 		makeWebPageHeading(us, page);
 
-		page.addString("footer", client.getLanguageConfiguration().getPageFooter(client.getPhotoSize()));
-		page.addString("mission", client.getLanguageConfiguration().getPageMission());
+		// the footer and mission only depend on the language and photo size, so their bytes are kept
+		ModelConfig config = client.getLanguageConfiguration();
+		FragmentCache fragmentCache = FragmentCache.getInstance();
+		PhotoSize photoSize = client.getPhotoSize();
+		page.addWritable("footer", fragmentCache.getStringFragment(config.getLanguageCode(),
+				"footer" + photoSize.asInt(), config.getPageFooter(photoSize)));
+		page.addWritable("mission", fragmentCache.getStringFragment(config.getLanguageCode(), "mission",
+				config.getPageMission()));
 	}
 
 	/**
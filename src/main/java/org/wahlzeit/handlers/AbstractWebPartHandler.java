@@ -33,9 +33,11 @@ import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.webparts.FragmentCache;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.WebPartTemplate;
 import org.wahlzeit.webparts.WebPartTemplateService;
+import org.wahlzeit.webparts.Writable;
 
 import java.io.File;
 import java.util.Map;
@@ -80,6 +82,17 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 		return new WebPart(tmpl);
 	}
 
+	/**
+	 * @methodtype factory
+	 *
+	 * For parts without values, which are the same for all users of a language: they are rendered once and then
+	 * written from the FragmentCache.
+	 */
+	protected final Writable createStaticWebPart(UserSession us, String name) {
+		String languageCode = us.getClient().getLanguageConfiguration().getLanguageCode();
+		return FragmentCache.getInstance().getTemplateFragment(languageCode, name);
+	}
+
 	/**
 	 *
 	 */
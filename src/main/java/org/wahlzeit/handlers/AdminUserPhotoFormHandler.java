@@ -73,6 +73,7 @@ public class AdminUserPhotoFormHandler extends AbstractWebFormHandler {
 		photo.setTags(new Tags(tags));
 		String status = us.getAndSaveAsString(args, Photo.STATUS);
 		photo.setStatus(PhotoStatus.getFromString(status));
+		PageCache.getInstance().invalidatePhoto(photo.getId());
 
 		AsyncTaskExecutor.savePhotoAsync(id);
 
@@ -98,6 +98,7 @@ public class EditPhotoCaseFormHandler extends AbstractWebFormHandler {
 		}
 
 		photo.setStatus(status);
+		PageCache.getInstance().invalidatePhoto(photo.getId());
 
 		log.info(LogBuilder.createUserMessage().
 				addAction("EditPhotoCase").
@@ -102,6 +102,7 @@ public class EditUserPhotoFormHandler extends AbstractWebFormHandler {
 		boolean isInvisible = (status != null) && status.equals("on");
 		PhotoStatus ps = photo.getStatus().asInvisible(isInvisible);
 		photo.setStatus(ps);
+		PageCache.getInstance().invalidatePhoto(photo.getId());
 
 		AsyncTaskExecutor.savePhotoAsync(id);
 
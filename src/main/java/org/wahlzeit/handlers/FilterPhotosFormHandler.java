@@ -22,9 +22,12 @@ package org.wahlzeit.handlers;
 
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.PhotoFilter;
-import org.wahlzeit.model.Tags;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoQuery;
+import org.wahlzeit.model.PhotoTagIndex;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
@@ -38,6 +41,11 @@ public class FilterPhotosFormHandler extends AbstractWebFormHandler {
 
 	private static final Logger log = Logger.getLogger(FilterPhotosFormHandler.class.getName());
 
+	/**
+	 *
+	 */
+	public static final String TAG_SUGGESTIONS = "tagSuggestions";
+	public static final int MAX_TAG_SUGGESTIONS = 20;
 
 	/**
 	 *
@@ -53,7 +61,8 @@ public class FilterPhotosFormHandler extends AbstractWebFormHandler {
 		PhotoFilter filter = us.getPhotoFilter();
 
 		part.maskAndAddString(PhotoFilter.USER_NAME, filter.getUserName());
-		part.maskAndAddString(PhotoFilter.TAGS, filter.getTags().asString());
+		part.maskAndAddString(PhotoFilter.TAGS, filter.getTagQuery());
+		part.addString(TAG_SUGGESTIONS, getTagSuggestionsAsHtml());
 	}
 
 	/**
@@ -69,15 +78,30 @@ public class FilterPhotosFormHandler extends AbstractWebFormHandler {
 
 		String tags = us.getAsString(args, PhotoFilter.TAGS);
 		if (StringUtil.isLegalTagsString(tags)) {
-			filter.setTags(new Tags(tags));
+			PhotoTagIndex photoTagIndex = PhotoManager.getInstance().getPhotoTagIndex();
+			filter.setTagQuery(PhotoQuery.correctTypos(tags, photoTagIndex));
 		}
 
 		log.info(LogBuilder.createUserMessage().
 				addAction("Filter Photos").
-				addParameter("Tags", filter.getTags().asString()).toString());
+				addParameter("Tags", filter.getTagQuery()).toString());
 
 
 		return PartUtil.SHOW_PHOTO_PAGE_NAME;
 	}
 
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the most used tags as options of an HTML datalist; the form asks the TagCompletionServlet while typing.
+	 */
+	protected String getTagSuggestionsAsHtml() {
+		StringBuilder result = new StringBuilder();
+		PhotoTagIndex photoTagIndex = PhotoManager.getInstance().getPhotoTagIndex();
+		for (String tag : photoTagIndex.getTagCompletions("", MAX_TAG_SUGGESTIONS)) {
+			result.append("<option value=\"").append(HtmlUtil.maskForWeb(tag)).append("\">");
+		}
+		return result.toString();
+	}
+
 }
@@ -100,6 +100,7 @@ public class FlagPhotoFormHandler extends AbstractWebFormHandler {
 
 		Photo photo = PhotoManager.getInstance().getPhoto(id);
 		photo.setStatus(photo.getStatus().asFlagged(true));
+		PageCache.getInstance().invalidatePhoto(photo.getId());
 		AsyncTaskExecutor.savePhotoAsync(id);
 
 		PhotoCase photoCase = new PhotoCase(photo);
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.handlers;
+
+import org.wahlzeit.model.Client;
+import org.wahlzeit.model.Guest;
+import org.wahlzeit.model.PhotoFilter;
+import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.UserSession;
+import org.wahlzeit.services.Language;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.cache.BoundedCache;
+import org.wahlzeit.services.cache.CacheStatistics;
+import org.wahlzeit.services.cache.LruEvictionPolicy;
+import org.wahlzeit.services.cache.Weigher;
+import org.wahlzeit.utils.ContentEncodingUtil;
+import org.wahlzeit.utils.StringUtil;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * The PageCache keeps the rendered bytes of pages as an anonymous Guest sees them, so that the same page for the
+ * next Guest costs a lookup instead of a handler run. A page is only cached for a Guest whose view is not
+ * personalized: no message, no praised photo, no photo filter, and no request arguments.
+ *
+ * Pages are keyed by page name, language and photo size; photo pages are named by their photo id, which is how a
+ * changed photo invalidates its pages. Every page also expires after a fixed time. The cache is off unless enabled
+ * in the SysConfig.
+ *
+ * A page that was rendered while its photo was invalidated must not be stored afterwards. Each invalidation therefore
+ * increments a version of the page name, and a page is only kept if the version is still the one read before it was
+ * rendered. Versions are kept in a fixed number of stripes; page names that share a stripe only cost an extra miss.
+ *
+ * A cached page is served exactly as it was rendered, so its processing time is that of the original render, not the
+ * (much shorter) time of the cache hit.
+ */
+public class PageCache {
+
+	private static final Logger log = Logger.getLogger(PageCache.class.getName());
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+	public static final long DEFAULT_TIME_TO_LIVE = 60 * 1000;
+	public static final int NO_VERSION_STRIPES = 1024;
+
+	/**
+	 *
+	 */
+	protected static final Weigher<Key, CachedPage> PAGE_WEIGHER = new Weigher<Key, CachedPage>() {
+		@Override
+		public long weigh(Key key, CachedPage page) {
+			byte[] gzippedBytes = page.getGzippedBytes();
+			return page.getBytes().length + ((gzippedBytes != null) ? gzippedBytes.length : 0);
+		}
+	};
+
+	/**
+	 *
+	 */
+	protected static final PageCache instance = new PageCache();
+
+	/**
+	 *
+	 */
+	protected final BoundedCache<Key, CachedPage> pages =
+			new BoundedCache<Key, CachedPage>(DEFAULT_MAX_BYTES, new LruEvictionPolicy<Key>(), PAGE_WEIGHER);
+
+	/**
+	 * Invalidation versions of the page names, by stripe
+	 */
+	protected final AtomicLongArray versions = new AtomicLongArray(NO_VERSION_STRIPES);
+
+	/**
+	 *
+	 */
+	protected volatile boolean isEnabled = false;
+	protected volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+	/**
+	 * @methodtype get
+	 */
+	public static PageCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Applies the settings of the SysConfig.
+	 */
+	public void configure() {
+		SysConfig sysConfig = SysConfig.getInstance();
+		isEnabled = sysConfig.getBooleanValue(SysConfig.PAGE_CACHE);
+		timeToLive = sysConfig.getLongValue(SysConfig.PAGE_CACHE_TTL);
+		pages.setMaxWeight(sysConfig.getLongValue(SysConfig.PAGE_CACHE_SIZE));
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("page cache", isEnabled).
+				addParameter("time to live", String.valueOf(timeToLive)).
+				addParameter("page cache bytes", String.valueOf(pages.getMaxWeight())).toString());
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setEnabled(boolean enabled) {
+		isEnabled = enabled;
+		if (!enabled) {
+			pages.clear();
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setTimeToLive(long newTimeToLive) {
+		timeToLive = newTimeToLive;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the key under which the page may be cached for the session, or null if it may not be cached.
+	 */
+	public Key getKey(UserSession us, WebPageHandler handler, String link, boolean hasArgs) {
+		if (!isEnabled || hasArgs || handler == null || !handler.isCacheableForGuests(link)) {
+			return null;
+		}
+
+		Client client = us.getClient();
+		if (!(client instanceof Guest) || client.getLastPraisedPhoto() != null) {
+			return null;
+		}
+		if (!StringUtil.isNullOrEmptyString(us.getMessage())) {
+			return null;
+		}
+		PhotoFilter filter = us.getPhotoFilter();
+		if (!StringUtil.isNullOrEmptyString(filter.getUserName()) ||
+				!StringUtil.isNullOrEmptyString(filter.getTagQuery())) {
+			return null;
+		}
+
+		return new Key(link, client.getLanguage(), client.getPhotoSize());
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the invalidation version of the page; read it before rendering the page, and pass it to putPage.
+	 */
+	public long getVersion(Key key) {
+		return versions.get(getVersionStripe(key.getPageName()));
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected int getVersionStripe(String pageName) {
+		return (pageName.hashCode() & Integer.MAX_VALUE) % NO_VERSION_STRIPES;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the page, or null if it is not cached or has expired.
+	 */
+	public byte[] getPage(Key key) {
+		CachedPage result = getCachedPage(key);
+		return (result != null) ? result.getBytes() : null;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the gzip encoded page, or null if it is not cached or has expired. The encoding is created and stored
+	 * the first time a gzip client asks for the page.
+	 */
+	public byte[] getGzippedPage(Key key) {
+		long version = getVersion(key);
+		CachedPage page = getCachedPage(key);
+		if (page == null) {
+			return null;
+		}
+
+		byte[] result = page.getGzippedBytes();
+		if (result == null) {
+			result = ContentEncodingUtil.gzip(page.getBytes());
+			doPutPage(key, new CachedPage(page.getBytes(), result, page.getExpiryTime()), version);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected CachedPage getCachedPage(Key key) {
+		CachedPage result = pages.get(key);
+		if ((result != null) && (result.getExpiryTime() < System.currentTimeMillis())) {
+			pages.remove(key);
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Stores the page; its gzip encoding is created when it is first needed.
+	 */
+	public void putPage(Key key, byte[] page) {
+		putPage(key, page, null, getVersion(key));
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Stores the page together with its gzip encoding, which may be null if it has not been created yet, unless the
+	 * page has been invalidated since version was read.
+	 */
+	public void putPage(Key key, byte[] page, byte[] gzippedPage, long version) {
+		if (isEnabled) {
+			doPutPage(key, new CachedPage(page, gzippedPage, System.currentTimeMillis() + timeToLive), version);
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 * @methodproperties primitive
+	 */
+	protected void doPutPage(Key key, CachedPage page, long version) {
+		pages.put(key, page);
+		// an invalidation after the version check would remove the page itself, so check after the put
+		if (getVersion(key) != version) {
+			pages.remove(key);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Drops all pages of the photo, in all languages and photo sizes.
+	 */
+	public void invalidatePhoto(PhotoId photoId) {
+		if (photoId == null) {
+			return;
+		}
+
+		String pageName = photoId.asString();
+		versions.incrementAndGet(getVersionStripe(pageName));
+		for (Key key : pages.keySet()) {
+			if (key.getPageName().equals(pageName)) {
+				pages.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		pages.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return pages.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStatistics getStatistics() {
+		return pages.getStatistics();
+	}
+
+	/**
+	 * Identifies a page as a Guest sees it.
+	 */
+	public static class Key {
+
+		protected final String pageName;
+		protected final Language language;
+		protected final PhotoSize photoSize;
+
+		/**
+		 * @methodtype constructor
+		 */
+		public Key(String pageName, Language language, PhotoSize photoSize) {
+			if (pageName == null) {
+				throw new IllegalArgumentException("page name must not be null");
+			}
+			this.pageName = pageName;
+			this.language = language;
+			this.photoSize = photoSize;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public String getPageName() {
+			return pageName;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return pageName.equals(other.pageName) && language == other.language && photoSize == other.photoSize;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = pageName.hashCode();
+			result = 31 * result + (language != null ? language.hashCode() : 0);
+			return 31 * result + (photoSize != null ? photoSize.hashCode() : 0);
+		}
+
+	}
+
+	/**
+	 * A rendered page, its gzip encoding if already created, and the time it expires.
+	 */
+	protected static class CachedPage {
+
+		protected final byte[] bytes;
+		protected final byte[] gzippedBytes;
+		protected final long expiryTime;
+
+		/**
+		 * @methodtype constructor
+		 */
+		protected CachedPage(byte[] bytes, byte[] gzippedBytes, long expiryTime) {
+			this.bytes = bytes;
+			this.gzippedBytes = gzippedBytes;
+			this.expiryTime = expiryTime;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public byte[] getGzippedBytes() {
+			return gzippedBytes;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getExpiryTime() {
+			return expiryTime;
+		}
+
+	}
+
+}
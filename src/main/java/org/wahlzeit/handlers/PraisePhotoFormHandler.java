@@ -25,6 +25,7 @@ import org.wahlzeit.model.Client;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.StringUtil;
@@ -82,8 +83,11 @@ public class PraisePhotoFormHandler extends AbstractWebFormHandler {
 			if (!us.hasPraisedPhoto(photo)) {
 				int value = Integer.parseInt(praise);
 				photo.addToPraise(value);
+				PageCache.getInstance().invalidatePhoto(photo.getId());
 				client.addPraisedPhotoId(photo.getId());
 				us.addProcessedPhoto(photo);
+				PhotoManager.getInstance().savePhotoLater(photo);
+				UserManager.getInstance().saveClientLater(client);
 				wasPraised = true;
 			}
 		}
@@ -43,11 +43,19 @@ public class ShowInfoPageHandler extends AbstractWebPageHandler {
 		infoTmplName = myInfoTmplName;
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 */
+	@Override
+	public boolean isCacheableForGuests(String link) {
+		return true;
+	}
+
 	/**
 	 *
 	 */
 	protected void makeWebPageBody(UserSession us, WebPart page) {
-		page.addWritable("info", createWebPart(us, infoTmplName));
+		page.addWritable("info", createStaticWebPart(us, infoTmplName));
 	}
 
 }
@@ -83,6 +83,24 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		return link;
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Only the page of a given photo can be cached; the default page picks a photo for each request.
+	 */
+	@Override
+	public boolean isCacheableForGuests(String link) {
+		return !link.equals(PartUtil.SHOW_PHOTO_PAGE_NAME);
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void handleCachedGet(UserSession us, String link) {
+		us.setPhotoId(PhotoId.getIdFromString(link));
+	}
+
 	/**
 	 *
 	 */
@@ -128,14 +146,14 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		if (lastPraisedPhoto != null) {
 			parts.append(makePriorPhotoInfo(us, lastPraisedPhoto));
 		} else {
-			parts.append(createWebPart(us, PartUtil.BLURP_INFO_FILE));
+			parts.append(createStaticWebPart(us, PartUtil.BLURP_INFO_FILE));
 		}
 
 		WebFormHandler handler = getFormHandler(PartUtil.FILTER_PHOTOS_FORM_NAME);
 		Writable filterPhotos = handler.makeWebPart(us);
 		parts.append(filterPhotos);
 
-		parts.append(createWebPart(us, PartUtil.LINKS_INFO_FILE));
+		parts.append(createStaticWebPart(us, PartUtil.LINKS_INFO_FILE));
 
 		page.addWritable("sidebar", parts);
 	}
@@ -110,6 +110,7 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 					addParameter("Photo", id).toString());
 		} else if (us.isFormType(args, "delete")) {
 			photo.setStatus(photo.getStatus().asDeleted(true));
+			PageCache.getInstance().invalidatePhoto(photo.getId());
 			PhotoManager.getInstance().savePhoto(photo);
 			if (user.getUserPhoto() == photo) {
 				user.setUserPhoto(null);
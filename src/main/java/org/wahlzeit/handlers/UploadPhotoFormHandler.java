@@ -20,13 +20,13 @@
 
 package org.wahlzeit.handlers;
 
-import com.google.appengine.api.images.Image;
 import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.Tags;
+import org.wahlzeit.model.UploadedImage;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
@@ -67,16 +67,17 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 		String tags = us.getAndSaveAsString(args, Photo.TAGS);
 
 		ModelConfig config = us.getClient().getLanguageConfiguration();
-		if (!StringUtil.isLegalTagsString(tags)) {
-			us.setMessage(config.getInputIsInvalid());
-			return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
-		}
-
+		User user = (User) us.getClient();
 		try {
+			// inside the try, so that a rejected upload is disposed of as well
+			if (!StringUtil.isLegalTagsString(tags)) {
+				us.setMessage(config.getInputIsInvalid());
+				return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
+			}
+
 			PhotoManager pm = PhotoManager.getInstance();
 			String fileName = us.getAsString(args, "fileName");
-			User user = (User) us.getClient();
-			Image uploadedImage = user.getUploadedImage();
+			UploadedImage uploadedImage = user.getUploadedImage();
 			Photo photo = pm.createPhoto(fileName, uploadedImage);
 
 			user.addPhoto(photo);
@@ -97,6 +98,8 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 		} catch (Exception ex) {
 			log.warning(LogBuilder.createSystemMessage().addException("uploading photo failed", ex).toString());
 			us.setMessage(config.getPhotoUploadFailed());
+		} finally {
+			user.setUploadedImage(null);
 		}
 
 		return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
@@ -34,5 +34,18 @@ public interface WebPageHandler extends WebPartHandler {
 	 */
 	WebPart makeWebPart(UserSession us);
 
+	/**
+	 * Whether a Guest's view of the page may be served from the PageCache; no page may by default.
+	 */
+	default boolean isCacheableForGuests(String link) {
+		return false;
+	}
+
+	/**
+	 * Called instead of handleGet when the page is served from the PageCache, to set up the session as handleGet would.
+	 */
+	default void handleCachedGet(UserSession us, String link) {
+		// nothing to set up by default
+	}
 
 }
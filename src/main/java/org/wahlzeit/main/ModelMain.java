@@ -24,8 +24,11 @@ import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
 import org.wahlzeit.model.*;
 import org.wahlzeit.model.persistence.DatastoreAdapter;
+import org.wahlzeit.model.persistence.FileSystemAdapter;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.WriteBehindQueue;
 
 import java.io.File;
 import java.io.FileFilter;
@@ -41,6 +44,33 @@ public abstract class ModelMain extends AbstractMain {
 
 	private static final Logger log = Logger.getLogger(ModelMain.class.getName());
 
+	/**
+	 * @methodtype factory
+	 */
+	protected ImageStorage createImageStorage(String name) {
+		if ("filesystem".equals(name)) {
+			return new FileSystemAdapter();
+		} else if ("datastore".equals(name)) {
+			return new DatastoreAdapter();
+		}
+		throw new IllegalArgumentException("Unknown image storage: " + name);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected ImageScaler createImageScaler(String name) {
+		if ("local".equals(name)) {
+			SysConfig sysConfig = SysConfig.getInstance();
+			float jpegQuality = Float.parseFloat(sysConfig.getValue(SysConfig.JPEG_QUALITY).trim());
+			int noThreads = (int) sysConfig.getLongValue(SysConfig.IMAGE_SCALER_THREADS);
+			return new LocalImageScaler(jpegQuality, noThreads);
+		} else if ("imagesservice".equals(name)) {
+			return new ImagesServiceScaler();
+		}
+		throw new IllegalArgumentException("Unknown image scaler: " + name);
+	}
+
 	/**
 	 *
 	 */
@@ -50,7 +80,13 @@ public abstract class ModelMain extends AbstractMain {
 
 		log.config(LogBuilder.createSystemMessage().addAction("load image storage").toString());
 		//GcsAdapter.Builder gcsAdapterBuilder = new GcsAdapter.Builder();
-		ImageStorage.setInstance(new DatastoreAdapter());
+		ImageStorage.setInstance(createImageStorage(SysConfig.getInstance().getValue(SysConfig.IMAGE_STORAGE)));
+
+		log.config(LogBuilder.createSystemMessage().addAction("load image scaler").toString());
+		ImageScaler.setInstance(createImageScaler(SysConfig.getInstance().getValue(SysConfig.IMAGE_SCALER)));
+
+		log.config(LogBuilder.createSystemMessage().addAction("configure write-behind queue").toString());
+		WriteBehindQueue.getInstance().configure();
 
 		log.config(LogBuilder.createSystemMessage().addAction("load globals").toString());
 		GlobalsManager.getInstance().loadGlobals();
@@ -79,6 +115,7 @@ public abstract class ModelMain extends AbstractMain {
 	 *
 	 */
 	public void saveAll() throws IOException{
+		WriteBehindQueue.getInstance().flush();
 		PhotoCaseManager.getInstance().savePhotoCases();
 		StickerPhotoManager.getInstance().savePhotos();
 		UserManager.getInstance().saveClients();
@@ -34,6 +34,7 @@ import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.webparts.WebPartTemplateService;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.util.logging.Logger;
 
@@ -105,6 +106,7 @@ public class ServiceMain extends ModelMain {
 
 		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartHandler").toString());
 		configureWebPartHandlers();
+		PageCache.getInstance().configure();
 
 		log.config(LogBuilder.createSystemMessage().addAction("Configure LanguageModels").toString());
 		configureLanguageModels();
@@ -120,7 +122,19 @@ public class ServiceMain extends ModelMain {
 	 */
 	public void configureWebPartTemplateService() {
 		ConfigDir templatesDir = SysConfig.getTemplatesDir();
-		WebPartTemplateService.getInstance().setTemplatesDir(templatesDir);
+		WebPartTemplateService templateService = WebPartTemplateService.getInstance();
+		templateService.setTemplatesDir(templatesDir);
+		templateService.loadTemplates();
+
+		if (SysConfig.getInstance().getBooleanValue(SysConfig.WATCH_TEMPLATES)) {
+			try {
+				templateService.startWatching();
+			} catch (IOException | RuntimeException e) {
+				// templates still work, they are just not reloaded
+				log.warning(LogBuilder.createSystemMessage().
+						addException("Unable to watch templates directory", e).toString());
+			}
+		}
 	}
 
 	/**
@@ -246,6 +260,8 @@ public class ServiceMain extends ModelMain {
 		//AgentManager am = AgentManager.getInstance();
 		//am.stopAllThreads();
 
+		WebPartTemplateService.getInstance().stopWatching();
+
 		super.shutDown();
 	}
 
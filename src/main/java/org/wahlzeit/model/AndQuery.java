@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches all photos that match every operand. Without operands, it matches all photos.
+ *
+ * The operand with the smallest estimated result is evaluated first; the other operands only filter its result, so
+ * large posting lists are never copied or unioned. Negated operands go last, as they cannot shrink an empty result.
+ */
+public class AndQuery extends PhotoQuery {
+
+	/**
+	 *
+	 */
+	protected final List<PhotoQuery> operands;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public AndQuery(List<PhotoQuery> operands) {
+		this.operands = new ArrayList<PhotoQuery>(operands);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<PhotoQuery> getOperands() {
+		return operands;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public AndQuery and(PhotoQuery operand) {
+		List<PhotoQuery> newOperands = new ArrayList<PhotoQuery>(operands);
+		newOperands.add(operand);
+		return new AndQuery(newOperands);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return operands.isEmpty();
+	}
+
+	@Override
+	public PhotoIdSet evaluate(PhotoTagIndex index) {
+		List<PhotoQuery> orderedOperands = getOrderedOperands(index);
+		if (orderedOperands.isEmpty() || orderedOperands.get(0) instanceof NotQuery) {
+			return retainMatches(index.getAllPhotoIds(), orderedOperands, index);
+		}
+
+		PhotoIdSet result = orderedOperands.get(0).evaluate(index);
+		return retainMatches(result, orderedOperands.subList(1, orderedOperands.size()), index);
+	}
+
+	@Override
+	public int estimateSize(PhotoTagIndex index) {
+		int result = index.getNoPhotoIds();
+		for (PhotoQuery operand : operands) {
+			result = Math.min(result, operand.estimateSize(index));
+		}
+		return result;
+	}
+
+	@Override
+	public PhotoIdSet retainMatches(PhotoIdSet candidates, PhotoTagIndex index) {
+		return retainMatches(candidates, getOrderedOperands(index), index);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected PhotoIdSet retainMatches(PhotoIdSet candidates, List<PhotoQuery> orderedOperands, PhotoTagIndex index) {
+		PhotoIdSet result = candidates;
+		for (PhotoQuery operand : orderedOperands) {
+			if (result.isEmpty()) {
+				break;
+			}
+			result = operand.retainMatches(result, index);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Returns the operands in the order of their estimated result size, negations last.
+	 */
+	protected List<PhotoQuery> getOrderedOperands(PhotoTagIndex index) {
+		List<PhotoQuery> result = new ArrayList<PhotoQuery>(operands.size());
+		List<Integer> sizes = new ArrayList<Integer>(operands.size());
+		for (PhotoQuery operand : operands) {
+			int size = (operand instanceof NotQuery) ? Integer.MAX_VALUE : operand.estimateSize(index);
+			int position = 0;
+			while (position < sizes.size() && sizes.get(position) <= size) {
+				position++;
+			}
+			result.add(position, operand);
+			sizes.add(position, size);
+		}
+		return result;
+	}
+
+	@Override
+	public String asString() {
+		StringBuilder result = new StringBuilder("(");
+		for (int i = 0; i < operands.size(); i++) {
+			if (i > 0) {
+				result.append(" AND ");
+			}
+			result.append(operands.get(i).asString());
+		}
+		return result.append(")").toString();
+	}
+
+}
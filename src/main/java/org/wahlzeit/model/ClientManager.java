@@ -141,6 +141,15 @@ public abstract class ClientManager extends ObjectManager {
 		updateObject(client);
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Saves the client with the next flush of the WriteBehindQueue.
+	 */
+	public void saveClientLater(Client client) {
+		updateObjectLater(client);
+	}
+
 
 	// save methods ----------------------------------------------------------------------------------------------------
 
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.InMemoryStoredImage;
+import org.wahlzeit.model.persistence.StoredImage;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.cache.BoundedCache;
+import org.wahlzeit.services.cache.CacheStatistics;
+import org.wahlzeit.services.cache.LruEvictionPolicy;
+import org.wahlzeit.services.cache.Weigher;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * The ImageCache holds the image renditions of photos, keyed by photo id and size. It is bounded by the total number
+ * of image bytes, independently of how many Photo objects the PhotoManager keeps in memory. Thumbnails have a budget
+ * of their own, so browsing large renditions evicts large renditions and leaves the thumbnails resident.
+ *
+ * Renditions that have been created but not yet written to the ImageStorage are pending and never evicted. Everything
+ * else is read through from the ImageStorage on a miss.
+ */
+public class ImageCache {
+
+	private static final Logger log = Logger.getLogger(ImageCache.class.getName());
+
+	/**
+	 * Default budgets in bytes
+	 */
+	public static final long DEFAULT_THUMBNAIL_CACHE_SIZE = 32L * 1024 * 1024;
+	public static final long DEFAULT_IMAGE_CACHE_SIZE = 128L * 1024 * 1024;
+
+	/**
+	 *
+	 */
+	protected static final Weigher<ImageKey, InMemoryStoredImage> IMAGE_WEIGHER =
+			new Weigher<ImageKey, InMemoryStoredImage>() {
+		@Override
+		public long weigh(ImageKey key, InMemoryStoredImage image) {
+			return image.getLength();
+		}
+	};
+
+	/**
+	 *
+	 */
+	protected static final ImageCache instance = new ImageCache();
+
+	/**
+	 * Images are kept as InMemoryStoredImages, so that their ETag is computed at most once while they are cached
+	 */
+	protected final BoundedCache<ImageKey, InMemoryStoredImage> thumbnails;
+	protected final BoundedCache<ImageKey, InMemoryStoredImage> renditions;
+
+	/**
+	 * Renditions that still have to be written to the ImageStorage
+	 */
+	protected final Map<ImageKey, InMemoryStoredImage> pendingImages =
+			new ConcurrentHashMap<ImageKey, InMemoryStoredImage>();
+
+	/**
+	 * @methodtype get
+	 */
+	public static ImageCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ImageCache() {
+		this(DEFAULT_THUMBNAIL_CACHE_SIZE, DEFAULT_IMAGE_CACHE_SIZE);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ImageCache(long maxThumbnailBytes, long maxImageBytes) {
+		// images are requested page by page, so plain recency fits better than frequency here
+		thumbnails = new BoundedCache<ImageKey, InMemoryStoredImage>(maxThumbnailBytes,
+				new LruEvictionPolicy<ImageKey>(), IMAGE_WEIGHER);
+		renditions = new BoundedCache<ImageKey, InMemoryStoredImage>(maxImageBytes,
+				new LruEvictionPolicy<ImageKey>(), IMAGE_WEIGHER);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Applies the byte budgets of the SysConfig.
+	 */
+	public void configure() {
+		SysConfig sysConfig = SysConfig.getInstance();
+		long maxThumbnailBytes = sysConfig.getLongValue(SysConfig.THUMBNAIL_CACHE_SIZE);
+		long maxImageBytes = sysConfig.getLongValue(SysConfig.IMAGE_CACHE_SIZE);
+		thumbnails.setMaxWeight(maxThumbnailBytes);
+		renditions.setMaxWeight(maxImageBytes);
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("thumbnail cache bytes", String.valueOf(maxThumbnailBytes)).
+				addParameter("image cache bytes", String.valueOf(maxImageBytes)).toString());
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the rendition from memory, or reads it from the ImageStorage. Returns null if there is no such rendition.
+	 */
+	public Image getImage(PhotoId photoId, PhotoSize photoSize) {
+		InMemoryStoredImage result = doGetCachedImage(new ImageKey(photoId, photoSize));
+		if (result == null) {
+			result = readImage(photoId, photoSize);
+			if (result != null) {
+				result = getCacheFor(photoSize).putIfAbsent(new ImageKey(photoId, photoSize), result);
+			}
+		}
+		return result != null ? result.getImage() : null;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a handle for streaming the rendition to a client. A rendition in memory is served from memory. Otherwise
+	 * it is opened in the ImageStorage; if the storage had to read it onto the heap anyway, it is cached. Returns null
+	 * if there is no such rendition.
+	 */
+	public StoredImage openImage(PhotoId photoId, PhotoSize photoSize) {
+		ImageKey key = new ImageKey(photoId, photoSize);
+		InMemoryStoredImage cachedImage = doGetCachedImage(key);
+		if (cachedImage != null) {
+			return cachedImage;
+		}
+
+		StoredImage result = openStoredImage(photoId, photoSize);
+		if (result instanceof InMemoryStoredImage) {
+			result = getCacheFor(photoSize).putIfAbsent(key, (InMemoryStoredImage) result);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the rendition only if it is in memory; does not access the ImageStorage.
+	 */
+	public Image getCachedImage(PhotoId photoId, PhotoSize photoSize) {
+		InMemoryStoredImage result = doGetCachedImage(new ImageKey(photoId, photoSize));
+		return result != null ? result.getImage() : null;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected InMemoryStoredImage doGetCachedImage(ImageKey key) {
+		InMemoryStoredImage result = pendingImages.get(key);
+		if (result == null) {
+			result = getCacheFor(key.getPhotoSize()).get(key);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Adds a rendition that is already in the ImageStorage.
+	 */
+	public void putImage(PhotoId photoId, PhotoSize photoSize, Image image) {
+		assertIsNonNullImage(image);
+		getCacheFor(photoSize).put(new ImageKey(photoId, photoSize), new InMemoryStoredImage(image));
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Adds a new rendition that has yet to be written; it stays in memory until markAsSaved is called.
+	 */
+	public void putPendingImage(PhotoId photoId, PhotoSize photoSize, Image image) {
+		assertIsNonNullImage(image);
+		ImageKey key = new ImageKey(photoId, photoSize);
+		getCacheFor(photoSize).remove(key);
+		pendingImages.put(key, new InMemoryStoredImage(image));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Image getPendingImage(PhotoId photoId, PhotoSize photoSize) {
+		InMemoryStoredImage result = pendingImages.get(new ImageKey(photoId, photoSize));
+		return result != null ? result.getImage() : null;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Moves a pending rendition into the bounded part of the cache, where it may be evicted.
+	 */
+	public void markAsSaved(PhotoId photoId, PhotoSize photoSize) {
+		ImageKey key = new ImageKey(photoId, photoSize);
+		InMemoryStoredImage image = pendingImages.remove(key);
+		if (image != null) {
+			getCacheFor(photoSize).put(key, image);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		pendingImages.clear();
+		thumbnails.clear();
+		renditions.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getWeight() {
+		return thumbnails.getWeight() + renditions.getWeight();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStatistics getThumbnailStatistics() {
+		return thumbnails.getStatistics();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStatistics getImageStatistics() {
+		return renditions.getStatistics();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected BoundedCache<ImageKey, InMemoryStoredImage> getCacheFor(PhotoSize photoSize) {
+		return photoSize == PhotoSize.THUMB ? thumbnails : renditions;
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Reads the rendition onto the heap, keeping the ETag and modification time the storage has recorded for it.
+	 */
+	protected InMemoryStoredImage readImage(PhotoId photoId, PhotoSize photoSize) {
+		StoredImage storedImage = openStoredImage(photoId, photoSize);
+		if (storedImage == null || storedImage instanceof InMemoryStoredImage) {
+			return (InMemoryStoredImage) storedImage;
+		}
+
+		InMemoryStoredImage result = null;
+		try {
+			Serializable rawImage = ImageStorage.getInstance().readImage(photoId.asString(), photoSize.asInt());
+			if (rawImage instanceof Image) {
+				result = new InMemoryStoredImage((Image) rawImage, storedImage.getETag(),
+						storedImage.getLastModified());
+			}
+		} catch (IOException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("size", photoSize.asString()).
+					addParameter("photo ID", photoId.asString()).
+					addException("Problem when reading image", e).toString());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected StoredImage openStoredImage(PhotoId photoId, PhotoSize photoSize) {
+		StoredImage result = null;
+		try {
+			result = ImageStorage.getInstance().openImage(photoId.asString(), photoSize.asInt());
+		} catch (IOException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("size", photoSize.asString()).
+					addParameter("photo ID", photoId.asString()).
+					addException("Problem when opening image", e).toString());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsNonNullImage(Image image) {
+		if (image == null) {
+			throw new IllegalArgumentException("image must not be null");
+		}
+	}
+
+	/**
+	 * Identifies one rendition of a photo.
+	 */
+	public static class ImageKey {
+
+		protected final PhotoId photoId;
+		protected final PhotoSize photoSize;
+
+		/**
+		 * @methodtype constructor
+		 */
+		public ImageKey(PhotoId photoId, PhotoSize photoSize) {
+			if (photoId == null || photoSize == null) {
+				throw new IllegalArgumentException("photo id and size must not be null");
+			}
+			this.photoId = photoId;
+			this.photoSize = photoSize;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public PhotoId getPhotoId() {
+			return photoId;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public PhotoSize getPhotoSize() {
+			return photoSize;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ImageKey)) {
+				return false;
+			}
+			ImageKey other = (ImageKey) o;
+			return photoSize == other.photoSize && photoId.equals(other.photoId);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * photoId.hashCode() + photoSize.hashCode();
+		}
+
+	}
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * An ImageScaler resizes images into renditions. The instance is chosen at startup; by default the App Engine images
+ * service is used. Scaling is asynchronous, so that independent renditions can be created at the same time.
+ */
+public abstract class ImageScaler {
+
+	private static final Logger log = Logger.getLogger(ImageScaler.class.getName());
+
+	/**
+	 *
+	 */
+	private static ImageScaler instance = new ImagesServiceScaler();
+
+	/**
+	 * @methodtype get
+	 */
+	public static ImageScaler getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setInstance(ImageScaler newInstance) {
+		if (newInstance == null) {
+			throw new IllegalArgumentException("image scaler must not be null");
+		}
+		log.config(LogBuilder.createSystemMessage().
+				addAction("set ImageScaler instance").
+				addParameter("instance", newInstance).toString());
+		instance = newInstance;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts scaling the image to the given width and height. The image passed in must not be used afterwards.
+	 */
+	public Future<Image> scaleAsync(Image image, int targetWidth, int targetHeight) {
+		if (image == null) {
+			throw new IllegalArgumentException("image must not be null");
+		} else if (targetWidth < 1 || targetHeight < 1) {
+			throw new IllegalArgumentException("invalid target size: " + targetWidth + "x" + targetHeight);
+		}
+		return doScaleAsync(image, targetWidth, targetHeight);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty hook
+	 */
+	protected abstract Future<Image> doScaleAsync(Image image, int targetWidth, int targetHeight);
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts scaling the source into the renditions of all steps. A step scales the source or the rendition of an
+	 * earlier step, so the steps have to be ordered from larger to smaller renditions. Returns the renditions by size.
+	 */
+	public Map<PhotoSize, Future<Image>> scaleAllAsync(Image source, List<ScalingStep> steps) throws Exception {
+		if (source == null) {
+			throw new IllegalArgumentException("image must not be null");
+		}
+		for (int i = 0; i < steps.size(); i++) {
+			PhotoSize scalingSource = steps.get(i).getScalingSource();
+			if (scalingSource != null && !hasSize(steps.subList(0, i), scalingSource)) {
+				throw new IllegalArgumentException("no earlier step for scaling source " + scalingSource.asString());
+			}
+		}
+		return doScaleAllAsync(source, steps);
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	protected static boolean hasSize(List<ScalingStep> steps, PhotoSize size) {
+		for (ScalingStep step : steps) {
+			if (step.getSize() == size) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty hook
+	 *
+	 * Starts all steps that scale the source at once and returns without waiting. A scaler like the images service
+	 * cannot call back when a rendition is done, so the other steps are chained through a Cascade: they are started
+	 * in order by the first thread that asks for one of their renditions, each as soon as the rendition it is scaled
+	 * from is done. Until then they do not run, which is why subclasses that can chain steps themselves override this.
+	 */
+	protected Map<PhotoSize, Future<Image>> doScaleAllAsync(Image source, List<ScalingStep> steps) throws Exception {
+		Map<PhotoSize, Future<Image>> result = new EnumMap<PhotoSize, Future<Image>>(PhotoSize.class);
+		byte[] sourceData = source.getImageData();
+		Cascade cascade = new Cascade();
+		for (ScalingStep step : steps) {
+			if (step.getScalingSource() == null) {
+				// a scaler may write the result into the image it was given, so every input is a fresh image
+				Image input = ImagesServiceFactory.makeImage(sourceData);
+				Future<Image> rendition = scaleAsync(input, step.getTargetWidth(), step.getTargetHeight());
+				cascade.renditions.put(step.getSize(), rendition);
+				result.put(step.getSize(), rendition);
+			} else {
+				cascade.unstartedSteps.add(step);
+				result.put(step.getSize(), new CascadedRendition(cascade, step.getSize()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The steps of one scaleAllAsync call that scale an earlier rendition, and the renditions started so far
+	 */
+	protected class Cascade {
+
+		protected final Map<PhotoSize, Future<Image>> renditions = new EnumMap<PhotoSize, Future<Image>>(PhotoSize.class);
+		protected final List<ScalingStep> unstartedSteps = new ArrayList<ScalingStep>();
+
+		/**
+		 * @methodtype command
+		 *
+		 * Starts the steps in order until the rendition of the given size has been started, and returns it.
+		 */
+		protected synchronized Future<Image> start(PhotoSize size) throws Exception {
+			while (!renditions.containsKey(size)) {
+				ScalingStep step = unstartedSteps.remove(0);
+				Image scalingSource = PhotoUtil.getRendition(renditions.get(step.getScalingSource()));
+				Image input = ImagesServiceFactory.makeImage(scalingSource.getImageData());
+				renditions.put(step.getSize(), scaleAsync(input, step.getTargetWidth(), step.getTargetHeight()));
+			}
+			return renditions.get(size);
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected synchronized Future<Image> getStarted(PhotoSize size) {
+			return renditions.get(size);
+		}
+
+	}
+
+	/**
+	 * The rendition of a cascaded step; asking for it starts the step.
+	 */
+	protected static class CascadedRendition implements Future<Image> {
+
+		protected final Cascade cascade;
+		protected final PhotoSize size;
+
+		/**
+		 * @methodtype constructor
+		 */
+		protected CascadedRendition(Cascade cascade, PhotoSize size) {
+			this.cascade = cascade;
+			this.size = size;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public Image get() throws InterruptedException, ExecutionException {
+			return start().get();
+		}
+
+		/**
+		 * @methodtype get
+		 *
+		 * The timeout applies to this rendition only, not to the renditions it is scaled from.
+		 */
+		public Image get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+				TimeoutException {
+			return start().get(timeout, unit);
+		}
+
+		/**
+		 * @methodtype helper
+		 */
+		protected Future<Image> start() throws InterruptedException, ExecutionException {
+			try {
+				return cascade.start(size);
+			} catch (InterruptedException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				throw new ExecutionException(ex);
+			}
+		}
+
+		/**
+		 * @methodtype boolean query
+		 */
+		public boolean isDone() {
+			Future<Image> rendition = cascade.getStarted(size);
+			return rendition != null && rendition.isDone();
+		}
+
+		/**
+		 * @methodtype command
+		 *
+		 * A cascaded step cannot be cancelled, as later steps may be scaled from its rendition.
+		 */
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		/**
+		 * @methodtype boolean query
+		 */
+		public boolean isCancelled() {
+			return false;
+		}
+
+	}
+
+	/**
+	 * One rendition to create: its size and dimensions, and the rendition it is scaled from, or null for the source.
+	 */
+	public static class ScalingStep {
+
+		protected final PhotoSize size;
+		protected final PhotoSize scalingSource;
+		protected final int targetWidth;
+		protected final int targetHeight;
+
+		/**
+		 * @methodtype constructor
+		 */
+		public ScalingStep(PhotoSize size, PhotoSize scalingSource, int targetWidth, int targetHeight) {
+			if (size == null) {
+				throw new IllegalArgumentException("size must not be null");
+			} else if (targetWidth < 1 || targetHeight < 1) {
+				throw new IllegalArgumentException("invalid target size: " + targetWidth + "x" + targetHeight);
+			}
+			this.size = size;
+			this.scalingSource = scalingSource;
+			this.targetWidth = targetWidth;
+			this.targetHeight = targetHeight;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public PhotoSize getSize() {
+			return size;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public PhotoSize getScalingSource() {
+			return scalingSource;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public int getTargetWidth() {
+			return targetWidth;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public int getTargetHeight() {
+			return targetHeight;
+		}
+
+	}
+
+}
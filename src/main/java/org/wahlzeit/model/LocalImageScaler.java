@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scales images locally with javax.imageio and Java 2D, on a bounded pool of threads. Large reductions are done by
+ * halving the image repeatedly with bicubic interpolation before the final step, which avoids the aliasing of a single
+ * large bicubic step. Opaque images are written as JPEG with the configured quality, images with alpha as PNG.
+ */
+public class LocalImageScaler extends ImageScaler {
+
+	/**
+	 *
+	 */
+	public static final float DEFAULT_JPEG_QUALITY = 0.85f;
+
+	/**
+	 *
+	 */
+	protected final float jpegQuality;
+	protected final ExecutorService executor;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public LocalImageScaler() {
+		this(DEFAULT_JPEG_QUALITY, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public LocalImageScaler(float jpegQuality, int noThreads) {
+		if (jpegQuality <= 0 || jpegQuality > 1) {
+			throw new IllegalArgumentException("JPEG quality must be in (0, 1]: " + jpegQuality);
+		} else if (noThreads < 1) {
+			throw new IllegalArgumentException("number of threads must be positive: " + noThreads);
+		}
+
+		this.jpegQuality = jpegQuality;
+		this.executor = Executors.newFixedThreadPool(noThreads, new ThreadFactory() {
+			private final AtomicInteger noThreadsCreated = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "image-scaler-" + noThreadsCreated.incrementAndGet());
+				result.setDaemon(true);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public float getJpegQuality() {
+		return jpegQuality;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	protected Future<Image> doScaleAsync(final Image image, final int targetWidth, final int targetHeight) {
+		return executor.submit(new Callable<Image>() {
+			@Override
+			public Image call() throws IOException {
+				return scale(image, targetWidth, targetHeight);
+			}
+		});
+	}
+
+	/**
+	 * Decodes the source only once. Each step resizes the decoded rendition it is scaled from as soon as that is done,
+	 * and encodes its result in a task of its own, so steps derived from a rendition do not wait for its encoding.
+	 */
+	@Override
+	protected Map<PhotoSize, Future<Image>> doScaleAllAsync(final Image source, List<ScalingStep> steps) {
+		CompletableFuture<BufferedImage> decodedSource = CompletableFuture.supplyAsync(() -> {
+			try {
+				return decode(source.getImageData());
+			} catch (IOException ex) {
+				throw new CompletionException(ex);
+			}
+		}, executor);
+
+		Map<PhotoSize, CompletableFuture<BufferedImage>> resized =
+				new EnumMap<PhotoSize, CompletableFuture<BufferedImage>>(PhotoSize.class);
+		Map<PhotoSize, Future<Image>> result = new EnumMap<PhotoSize, Future<Image>>(PhotoSize.class);
+		for (final ScalingStep step : steps) {
+			CompletableFuture<BufferedImage> input =
+					(step.getScalingSource() == null) ? decodedSource : resized.get(step.getScalingSource());
+			CompletableFuture<BufferedImage> rendition = input.thenApplyAsync(
+					image -> resize(image, step.getTargetWidth(), step.getTargetHeight()), executor);
+			resized.put(step.getSize(), rendition);
+			result.put(step.getSize(), rendition.thenApplyAsync(image -> {
+				try {
+					return ImagesServiceFactory.makeImage(encode(image));
+				} catch (IOException ex) {
+					throw new CompletionException(ex);
+				}
+			}, executor));
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public Image scale(Image image, int targetWidth, int targetHeight) throws IOException {
+		BufferedImage source = decode(image.getImageData());
+		BufferedImage target = resize(source, targetWidth, targetHeight);
+		return ImagesServiceFactory.makeImage(encode(target));
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected BufferedImage decode(byte[] data) throws IOException {
+		BufferedImage result = ImageIO.read(new ByteArrayInputStream(data));
+		if (result == null) {
+			throw new IOException("unsupported image format");
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Halves the image while it is at least twice as large as the target, then scales it to the target size.
+	 */
+	protected BufferedImage resize(BufferedImage source, int targetWidth, int targetHeight) {
+		int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		BufferedImage result = source;
+		int width = source.getWidth();
+		int height = source.getHeight();
+		do {
+			width = (width / 2 >= targetWidth) ? width / 2 : targetWidth;
+			height = (height / 2 >= targetHeight) ? height / 2 : targetHeight;
+			result = draw(result, width, height, type);
+		} while (width != targetWidth || height != targetHeight);
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected BufferedImage draw(BufferedImage source, int width, int height, int type) {
+		BufferedImage result = new BufferedImage(width, height, type);
+		Graphics2D graphics = result.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(source, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected byte[] encode(BufferedImage image) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		if (image.getColorModel().hasAlpha()) {
+			ImageIO.write(image, "png", result);
+			return result.toByteArray();
+		}
+
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		if (!writers.hasNext()) {
+			throw new IOException("no JPEG writer available");
+		}
+		ImageWriter writer = writers.next();
+		try (ImageOutputStream out = ImageIO.createImageOutputStream(result)) {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(jpegQuality);
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void shutDown() {
+		executor.shutdown();
+	}
+
+}
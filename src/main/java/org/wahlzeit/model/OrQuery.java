@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches all photos that match at least one of the operands.
+ */
+public class OrQuery extends PhotoQuery {
+
+	/**
+	 *
+	 */
+	protected final List<PhotoQuery> operands;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public OrQuery(List<PhotoQuery> operands) {
+		this.operands = new ArrayList<PhotoQuery>(operands);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<PhotoQuery> getOperands() {
+		return operands;
+	}
+
+	@Override
+	public PhotoIdSet evaluate(PhotoTagIndex index) {
+		PhotoIdSet result = new PhotoIdSet();
+		for (PhotoQuery operand : operands) {
+			result.addAll(operand.evaluate(index));
+		}
+		return result;
+	}
+
+	@Override
+	public int estimateSize(PhotoTagIndex index) {
+		long result = 0;
+		for (PhotoQuery operand : operands) {
+			result += operand.estimateSize(index);
+		}
+		return (int) Math.min(result, index.getNoPhotoIds());
+	}
+
+	@Override
+	public PhotoIdSet retainMatches(PhotoIdSet candidates, PhotoTagIndex index) {
+		PhotoIdSet result = new PhotoIdSet();
+		for (PhotoQuery operand : operands) {
+			result.addAll(operand.retainMatches(candidates, index));
+		}
+		return result;
+	}
+
+	@Override
+	public PhotoIdSet removeMatches(PhotoIdSet candidates, PhotoTagIndex index) {
+		PhotoIdSet result = candidates;
+		for (PhotoQuery operand : operands) {
+			result = operand.removeMatches(result, index);
+		}
+		return result;
+	}
+
+	@Override
+	public String asString() {
+		StringBuilder result = new StringBuilder("(");
+		for (int i = 0; i < operands.size(); i++) {
+			if (i > 0) {
+				result.append(" OR ");
+			}
+			result.append(operands.get(i).asString());
+		}
+		return result.append(")").toString();
+	}
+
+}
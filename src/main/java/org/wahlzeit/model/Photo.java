@@ -20,12 +20,12 @@
 
 package org.wahlzeit.model;
 
-import com.google.api.client.util.ArrayMap;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
@@ -58,6 +58,7 @@ public class Photo extends DataObject {
 	public static final String STATUS = "status";
 	public static final String IS_INVISIBLE = "isInvisible";
 	public static final String UPLOADED_ON = "uploadedOn";
+	public static final String NEW_PRAISE = "newPraise";
 
 	/**
 	 *
@@ -75,12 +76,12 @@ public class Photo extends DataObject {
 	protected String ownerId;
 	
 	/**
-	 * Each photo can be viewed in different sizes (XS, S, M, L, XL)
-	 * Images are pre-computed in these sizes to optimize bandwidth when requested.
+	 * Tag entities of this photo in the Datastore by their text; null if not known yet. Only used while holding the
+	 * lock of the photo, see PhotoManager.updateTags
 	 */
 	@Ignore
-	transient protected Map<PhotoSize, Image> images = new ArrayMap<PhotoSize, Image>();
-	
+	transient protected Map<String, Tag> persistedTags = null;
+
 	/**
 	 *
 	 */
@@ -111,6 +112,12 @@ public class Photo extends DataObject {
 	protected int praiseSum = 10;
 	protected int noVotes = 1;
 	protected int noVotesAtLastNotification = 1;
+
+	/**
+	 * Same as hasNewPraise(), but indexed, so that the photos to notify about can be queried
+	 */
+	@Index
+	protected boolean newPraise = false;
 	
 	/**
 	 *
@@ -154,16 +161,35 @@ public class Photo extends DataObject {
 
 	/**
 	 * @methodtype get
+	 *
+	 * Each photo can be viewed in different sizes (XS, S, M, L, XL). Images are computed in these sizes to optimize
+	 * bandwidth, some on upload and the others on first request; they are kept apart from the photo in the ImageCache.
 	 */
 	public Image getImage(PhotoSize photoSize) {
-		return images.get(photoSize);
+		return RenditionGenerator.getInstance().getImage(id, photoSize);
 	}
 
 	/**
 	 * @methodtype set
+	 *
+	 * Sets a newly computed image, which is written to the ImageStorage when the photo is saved.
 	 */
 	public void setImage(PhotoSize photoSize, Image image) {
-		this.images.put(photoSize, image);
+		ImageCache.getInstance().putPendingImage(id, photoSize, image);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Map<String, Tag> getPersistedTags() {
+		return persistedTags;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setPersistedTags(Map<String, Tag> newPersistedTags) {
+		persistedTags = newPersistedTags;
 	}
 
 	/**
@@ -345,6 +371,7 @@ public class Photo extends DataObject {
 	public void addToPraise(int value) {
 		praiseSum += value;
 		noVotes += 1;
+		newPraise = true;
 		incWriteCount();
 	}
 
@@ -368,6 +395,7 @@ public class Photo extends DataObject {
 	public void setStatus(PhotoStatus newStatus) {
 		status = newStatus;
 		incWriteCount();
+		PhotoManager.getInstance().updateVisibility(this);
 	}
 
 	/**
@@ -439,6 +467,24 @@ public class Photo extends DataObject {
 	 */
 	public void setNoNewPraise() {
 		noVotesAtLastNotification = noVotes;
+		newPraise = false;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * Returns false if the photo has new praise that is not reflected in the indexed newPraise property yet.
+	 */
+	public boolean isNewPraiseIndexed() {
+		return newPraise == hasNewPraise();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void indexNewPraise() {
+		newPraise = hasNewPraise();
 		incWriteCount();
 	}
 }
@@ -24,10 +24,6 @@ import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.StringUtil;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -51,12 +47,17 @@ public class PhotoFilter implements Serializable {
 	protected String userName = "";
 	protected Tags tags = Tags.EMPTY_TAGS;
 
+	/**
+	 * Tags as entered by the user, possibly with alternatives and negations, see PhotoQuery
+	 */
+	protected String tagQuery = "";
+
 	/**
 	 *
 	 */
-	protected List<PhotoId> displayablePhotoIds;
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> skippedPhotoIds = new LinkedList<PhotoId>();
+	protected PhotoIdSet displayablePhotoIds;
+	protected PhotoIdSet processedPhotoIds = new PhotoIdSet();
+	protected PhotoIdSet skippedPhotoIds = new PhotoIdSet();
 
 	/**
 	 *
@@ -107,33 +108,54 @@ public class PhotoFilter implements Serializable {
 	 */
 	public void setTags(Tags newTags) {
 		tags = newTags;
+		tagQuery = newTags.asString();
 		resetDisplayablePhotoIds();
 	}
 
 	/**
-	 *
+	 * @methodtype get
 	 */
-	public List<String> getFilterConditions() {
-		List<String> filterConditions = new ArrayList<String>();
+	public String getTagQuery() {
+		return tagQuery;
+	}
 
-		collectFilterConditions(filterConditions);
+	/**
+	 * @methodtype set
+	 *
+	 * Sets the tags as a query, e.g. "flower, red | blue, -tulip"; getTags then returns the tags that are not negated.
+	 */
+	public void setTagQuery(String newTagQuery) {
+		tagQuery = (newTagQuery != null) ? newTagQuery : "";
+		tags = new Tags(asPositiveTagsString(tagQuery));
+		resetDisplayablePhotoIds();
+	}
 
-		return filterConditions;
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asPositiveTagsString(String tagQuery) {
+		StringBuilder result = new StringBuilder();
+		for (String term : tagQuery.split("[" + PhotoQuery.AND_SEPARATOR + "\\" + PhotoQuery.OR_SEPARATOR + "]")) {
+			term = term.trim();
+			if (!term.isEmpty() && PhotoQuery.NOT_PREFIXES.indexOf(term.charAt(0)) == -1) {
+				result.append(term).append(Tags.SEPARATOR_CHAR);
+			}
+		}
+		return result.toString();
 	}
 
 	/**
+	 * @methodtype get
 	 *
+	 * Returns the query for the user name and tags of this filter.
 	 */
-	protected void collectFilterConditions(List<String> filterConditions) {
+	public PhotoQuery getQuery() {
+		AndQuery result = PhotoQuery.parse(tagQuery);
 		String un = getUserName();
 		if (!StringUtil.isNullOrEmptyString(un)) {
-			filterConditions.add("un:" + Tags.asTag(un));
-		}
-
-		String[] tags = getTags().asArray();
-		for (int i = 0; i < tags.length; i++) {
-			filterConditions.add("tg:" + tags[i]);
+			result = result.and(new TagQuery(PhotoQuery.USER_NAME_PREFIX + Tags.asTag(un)));
 		}
+		return result;
 	}
 
 	/**
@@ -159,14 +181,14 @@ public class PhotoFilter implements Serializable {
 	/**
 	 *
 	 */
-	public List<PhotoId> getDisplayablePhotoIds() {
+	public PhotoIdSet getDisplayablePhotoIds() {
 		return displayablePhotoIds;
 	}
 
 	/**
 	 *
 	 */
-	public void setDisplayablePhotoIds(List<PhotoId> newPhotoIds) {
+	public void setDisplayablePhotoIds(PhotoIdSet newPhotoIds) {
 		displayablePhotoIds = newPhotoIds;
 	}
 
@@ -174,13 +196,13 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public void resetDisplayablePhotoIds() {
-		displayablePhotoIds = new ArrayList<PhotoId>();
+		displayablePhotoIds = new PhotoIdSet();
 	}
 
 	/**
 	 *
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
+	public PhotoIdSet getProcessedPhotoIds() {
 		return processedPhotoIds;
 	}
 
@@ -188,10 +210,6 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		log.info("photoId: " + photoId.asString());
-		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
-		}
 		return processedPhotoIds.contains(photoId);
 	}
 
@@ -211,14 +229,14 @@ public class PhotoFilter implements Serializable {
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
+	public PhotoIdSet getSkippedPhotoIds() {
 		return skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
+	public void setSkippedPhotoIds(PhotoIdSet skippedPhotoIds) {
 		this.skippedPhotoIds = skippedPhotoIds;
 	}
 
@@ -226,45 +244,23 @@ public class PhotoFilter implements Serializable {
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
-		}
+		skippedPhotoIds.add(skippedPhotoId);
 	}
 
 	/**
 	 *
 	 */
-	protected List<PhotoId> getFilteredPhotoIds() {
-		// get all tags that match the filter conditions
-		List<PhotoId> result = new LinkedList<PhotoId>();
-		int noFilterConditions = getFilterConditions().size();
+	protected PhotoIdSet getFilteredPhotoIds() {
+		PhotoQuery query = getQuery();
 		log.config(LogBuilder.createSystemMessage().
-				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
+				addParameter("Filter query", query.asString()).toString());
 
-		Collection<PhotoId> candidates;
-		if (noFilterConditions == 0) {
-			candidates = PhotoManager.getInstance().getPhotoCache().keySet();
-		} else {
-			List<Tag> tags = new LinkedList<Tag>();
-			candidates = new LinkedList<PhotoId>();
-			for (String condition : getFilterConditions()) {
-				PhotoManager.getInstance().addTagsThatMatchCondition(tags, condition);
-			}
-			// get the list of all photo ids that correspond to the tags
-			for (Tag tag : tags) {
-				candidates.add(PhotoId.getIdFromString(tag.getPhotoId()));
-			}
-		}
+		PhotoTagIndex photoTagIndex = PhotoManager.getInstance().getPhotoTagIndex();
+		PhotoIdSet candidates = query.evaluate(photoTagIndex).andNot(processedPhotoIds).andNot(skippedPhotoIds);
+		// visibility is kept in the index, so no photo has to be loaded here
+		PhotoIdSet result = photoTagIndex.getVisiblePhotoIds(candidates);
 
-		int newPhotos = 0;
-		for (PhotoId candidateId : candidates) {
-			Photo photoCandidate = PhotoManager.getInstance().getPhoto(candidateId);
-			if (!processedPhotoIds.contains(candidateId) && !skippedPhotoIds.contains(candidateId) &&
-					photoCandidate.isVisible()) {
-				result.add(candidateId);
-				++newPhotos;
-			}
-		}
+		int newPhotos = result.size();
 		int skippedPhotos = skippedPhotoIds.size();
 		if (newPhotos == 0 && skippedPhotos > 0) {
 			result.addAll(skippedPhotoIds);
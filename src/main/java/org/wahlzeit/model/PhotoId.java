@@ -20,6 +20,8 @@
 
 package org.wahlzeit.model;
 
+import com.googlecode.objectify.annotation.Index;
+
 import java.io.Serializable;
 import java.util.Random;
 
@@ -142,8 +144,9 @@ public class PhotoId implements Serializable {
 	}
 
 	/**
-	 *
+	 * value is indexed so that photos can be loaded by their id, see PhotoManager.loadPhoto
 	 */
+	@Index
 	protected int value = 0;
 	protected String stringValue = null;
 
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.utils.IntBitmap;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of photo ids, stored as a compressed bitmap of their int values. Photo ids are dense ints, so sets of
+ * thousands of ids take a few bytes per id, and set algebra does not need to compare ids one by one.
+ */
+public class PhotoIdSet implements Iterable<PhotoId>, Serializable {
+
+	/**
+	 *
+	 */
+	protected IntBitmap bitmap;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoIdSet() {
+		bitmap = new IntBitmap();
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoIdSet(PhotoIdSet other) {
+		bitmap = new IntBitmap(other.bitmap);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	protected PhotoIdSet(IntBitmap myBitmap) {
+		bitmap = myBitmap;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(PhotoId photoId) {
+		int value = photoId.asInt();
+		if (bitmap.contains(value)) {
+			return false;
+		}
+		bitmap.add(value);
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addAll(PhotoIdSet other) {
+		bitmap = bitmap.or(other.bitmap);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(PhotoId photoId) {
+		int value = photoId.asInt();
+		if (!bitmap.contains(value)) {
+			return false;
+		}
+		bitmap.remove(value);
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		bitmap.clear();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(PhotoId photoId) {
+		return bitmap.contains(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return bitmap.getCardinality();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return bitmap.isEmpty();
+	}
+
+	/**
+	 * Returns the id at position index in ascending order.
+	 *
+	 * @methodtype get
+	 */
+	public PhotoId get(int index) {
+		return toPhotoId(bitmap.select(index));
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public PhotoIdSet and(PhotoIdSet other) {
+		return new PhotoIdSet(bitmap.and(other.bitmap));
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public PhotoIdSet or(PhotoIdSet other) {
+		return new PhotoIdSet(bitmap.or(other.bitmap));
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public PhotoIdSet andNot(PhotoIdSet other) {
+		return new PhotoIdSet(bitmap.andNot(other.bitmap));
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public List<PhotoId> asList() {
+		int[] values = bitmap.toArray();
+		List<PhotoId> result = new ArrayList<PhotoId>(values.length);
+		for (int value : values) {
+			result.add(toPhotoId(value));
+		}
+		return result;
+	}
+
+	/**
+	 * Iterates over a snapshot in ascending order.
+	 */
+	@Override
+	public Iterator<PhotoId> iterator() {
+		final int[] values = bitmap.toArray();
+		return new Iterator<PhotoId>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < values.length;
+			}
+
+			@Override
+			public PhotoId next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return toPhotoId(values[next++]);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof PhotoIdSet && bitmap.equals(((PhotoIdSet) o).bitmap);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public int hashCode() {
+		return bitmap.hashCode();
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * PhotoId only interns ids up to its current id, so others are created here.
+	 */
+	protected static PhotoId toPhotoId(int value) {
+		PhotoId result = PhotoId.getIdFromInt(value);
+		return result.isNullId() && value != PhotoId.NULL_ID.asInt() ? new PhotoId(value) : result;
+	}
+
+}
@@ -21,15 +21,20 @@
 package org.wahlzeit.model;
 
 import com.google.appengine.api.images.Image;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.cache.BoundedCache;
+import org.wahlzeit.services.cache.EvictionListener;
 
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -38,6 +43,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
@@ -53,20 +60,98 @@ public class PhotoManager extends ObjectManager {
 	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
 
 	/**
-	 * In-memory cache for photos
+	 * Datastore property of the photo id as int, see PhotoId
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	public static final String PHOTO_ID_VALUE = Photo.ID + ".value";
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_PHOTO_CACHE_SIZE = 10000;
+
+	/**
+	 * In-memory cache for photos; bounded, photos that do not fit are reloaded from the Datastore on demand
+	 */
+	protected BoundedCache<PhotoId, Photo> photoCache;
+
+	/**
+	 * Datastore keys of all known photos. The key of a photo cannot be derived from its PhotoId, and photos saved
+	 * before PhotoId.value was indexed cannot be found by a query, so evicted photos are reloaded by key.
+	 */
+	protected final ConcurrentMap<PhotoId, Key<Photo>> photoKeys = new ConcurrentHashMap<PhotoId, Key<Photo>>();
 
 	/**
 	 *
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 
+	/**
+	 * In-memory copy of the Tag entities of all photos, see updateTags
+	 */
+	protected PhotoTagIndex photoTagIndex = new PhotoTagIndex();
+
 	/**
 	 *
 	 */
 	public PhotoManager() {
 		photoTagCollector = PhotoFactory.getInstance().createPhotoTagCollector();
+		photoCache = createPhotoCache(DEFAULT_PHOTO_CACHE_SIZE, BoundedCache.TINY_LFU_POLICY);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected BoundedCache<PhotoId, Photo> createPhotoCache(long maxSize, String policyName) {
+		BoundedCache<PhotoId, Photo> result =
+				new BoundedCache<PhotoId, Photo>(maxSize, BoundedCache.<PhotoId>createEvictionPolicy(policyName));
+		result.setEvictionListener(new EvictionListener<PhotoId, Photo>() {
+			@Override
+			public void onEviction(PhotoId id, Photo photo) {
+				handlePhotoEviction(photo);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Photos with unsaved changes are written when they drop out of the cache, as they can only be reloaded from the
+	 * Datastore. Until the photo has been written, getPhotoFromId takes it from the pending evictions of the cache.
+	 */
+	protected void handlePhotoEviction(final Photo photo) {
+		if (photo.isDirty()) {
+			log.config(LogBuilder.createSystemMessage().
+					addParameter("Save evicted Photo", photo.getIdAsString()).toString());
+			ObjectifyService.run(new VoidWork() {
+				@Override
+				public void vrun() {
+					savePhoto(photo);
+				}
+			});
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Replaces the photo cache by one with the size and eviction policy of the SysConfig. Cached photos are kept as
+	 * far as they fit.
+	 */
+	protected void configurePhotoCache() {
+		SysConfig sysConfig = SysConfig.getInstance();
+		long maxSize = sysConfig.getLongValue(SysConfig.PHOTO_CACHE_SIZE);
+		String policyName = sysConfig.getValue(SysConfig.PHOTO_CACHE_POLICY);
+
+		BoundedCache<PhotoId, Photo> newCache = createPhotoCache(maxSize, policyName);
+		for (Photo photo : photoCache.values()) {
+			newCache.put(photo.getId(), photo);
+		}
+		photoCache = newCache;
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("photo cache size", String.valueOf(maxSize)).
+				addParameter("photo cache policy", policyName).toString());
 	}
 
 	/**
@@ -108,15 +193,57 @@ public class PhotoManager extends ObjectManager {
 		Photo result = doGetPhotoFromId(id);
 
 		if (result == null) {
-			result = PhotoFactory.getInstance().loadPhoto(id);
+			// an evicted photo that is still being saved is newer than the one in the Datastore
+			result = photoCache.getPendingEviction(id);
+			if (result == null) {
+				result = loadPhoto(id);
+			}
 			if (result != null) {
-				doAddPhoto(result);
+				result = doAddPhotoIfAbsent(result);
 			}
 		}
 
 		return result;
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Loads a photo that is not (or no longer) in the cache. Returns null if there is no such photo. Photos with a
+	 * known key are loaded by key; the query on the id is only a fallback for photos saved by another instance.
+	 */
+	protected Photo loadPhoto(final PhotoId id) {
+		Photo result = PhotoFactory.getInstance().loadPhoto(id);
+		if (result == null && !id.isNullId()) {
+			final Key<Photo> key = photoKeys.get(id);
+			result = ObjectifyService.run(new Work<Photo>() {
+				@Override
+				public Photo run() {
+					if (key != null) {
+						return OfyService.ofy().load().key(key).now();
+					}
+					return readObject(Photo.class, PHOTO_ID_VALUE, id.asInt());
+				}
+			});
+			if (result != null) {
+				result.resetWriteCount();
+				registerPhotoKey(result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Remembers the Datastore key of a stored photo, so that it can be reloaded after eviction.
+	 */
+	protected void registerPhotoKey(Photo photo) {
+		if (photo.idLong != null) {
+			photoKeys.put(photo.getId(), Key.create(photo));
+		}
+	}
+
 	/**
 	 * @methodtype get
 	 * @methodproperties primitive
@@ -133,6 +260,16 @@ public class PhotoManager extends ObjectManager {
 		photoCache.put(myPhoto.getId(), myPhoto);
 	}
 
+	/**
+	 * Adds the photo unless another thread has been faster; returns the photo that is in the cache afterwards.
+	 *
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected Photo doAddPhotoIfAbsent(Photo myPhoto) {
+		return photoCache.putIfAbsent(myPhoto.getId(), myPhoto);
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -144,13 +281,17 @@ public class PhotoManager extends ObjectManager {
 	 * @methodtype init Loads all Photos from the Datastore and holds them in the cache
 	 */
 	public void init() {
+		configurePhotoCache();
+		ImageCache.getInstance().configure();
+		PhotoUtil.configure();
 		loadPhotos();
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Load all persisted photos. Executed when Wahlzeit is restarted.
+	 * Load all persisted photos. Executed when Wahlzeit is restarted. Unless lazy image loading is switched off in the
+	 * SysConfig, only the photo metadata is loaded; images are read by the ImageCache on first request.
 	 */
 	public void loadPhotos() {
 		Collection<Photo> existingPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
@@ -162,11 +303,22 @@ public class PhotoManager extends ObjectManager {
 			}
 		});
 
+		boolean isLazyImageLoading = SysConfig.getInstance().getBooleanValue(SysConfig.LAZY_IMAGE_LOADING);
+		final List<Photo> unindexedPhotos = new ArrayList<Photo>();
 		for (Photo photo : existingPhotos) {
+			registerPhotoKey(photo);
+			if (!photo.isNewPraiseIndexed()) {
+				photo.indexNewPraise();
+				unindexedPhotos.add(photo);
+			}
 			if (!doHasPhoto(photo.getId())) {
 				log.config(LogBuilder.createSystemMessage().
 						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
+				if (!isLazyImageLoading) {
+					loadScaledImages(photo);
+				}
+				photo.resetWriteCount(); // just loaded, nothing to save
+				indexTags(photo);
 				doAddPhoto(photo);
 			} else {
 				log.config(LogBuilder.createSystemMessage().
@@ -174,7 +326,22 @@ public class PhotoManager extends ObjectManager {
 			}
 		}
 
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
+		if (!unindexedPhotos.isEmpty()) {
+			// one-time reindex of photos saved before newPraise existed
+			ObjectifyService.run(new VoidWork() {
+				@Override
+				public void vrun() {
+					writeObjects(unindexedPhotos);
+				}
+			});
+			for (Photo photo : unindexedPhotos) {
+				photo.resetWriteCount();
+			}
+		}
+
+		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").
+				addParameter("lazy image loading", isLazyImageLoading).
+				addParameter("photo cache", photoCache.getStatistics().asString()).toString());
 	}
 
 	/**
@@ -188,30 +355,17 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Loads all scaled Images of this Photo from Google Cloud Storage
+	 * Loads all scaled Images of this Photo into the ImageCache. Each size is read once; a missing size simply reads
+	 * as null, so there is no separate existence check.
 	 */
 	protected void loadScaledImages(Photo photo) {
-		String photoIdAsString = photo.getId().asString();
-		ImageStorage imageStorage = ImageStorage.getInstance();
-
+		ImageCache imageCache = ImageCache.getInstance();
 		for (PhotoSize photoSize : PhotoSize.values()) {
 			log.config(LogBuilder.createSystemMessage().
 					addAction("loading image").
 					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-				try {
-					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
-					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
-					}
-				} catch (IOException e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addParameter("size", photoSize.asString()).
-							addParameter("photo ID", photoIdAsString).
-							addException("Could not load image although it exists", e).toString());
-				}
-			} else {
+					addParameter("photo ID", photo.getIdAsString()).toString());
+			if (imageCache.getImage(photo.getId(), photoSize) == null) {
 				log.config(LogBuilder.createSystemMessage().
 						addParameter("Size does not exist", photoSize.asString()).toString());
 			}
@@ -225,10 +379,20 @@ public class PhotoManager extends ObjectManager {
 		updateObject(photo);
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Saves the photo with the next flush of the WriteBehindQueue.
+	 */
+	public void savePhotoLater(Photo photo) {
+		updateObjectLater(photo);
+	}
+
 	@Override
 	protected void updateDependents(Persistent obj) {
 		if (obj instanceof Photo) {
 			Photo photo = (Photo) obj;
+			registerPhotoKey(photo);
 			saveScaledImages(photo);
 			updateTags(photo);
 			UserManager userManager = UserManager.getInstance();
@@ -248,53 +412,140 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Persists all available sizes of the Photo. If one size exceeds the limit of the persistence layer, e.g. > 1MB for
-	 * the Datastore, it is simply not persisted.
+	 * Persists all new sizes of the Photo. If storing one size fails, the other sizes are still stored; the failed one
+	 * stays pending in the ImageCache, so it is not evicted and the next save tries again. The existing sizes are
+	 * looked up once for all sizes.
 	 */
 	protected void saveScaledImages(Photo photo) {
-		String photoIdAsString = photo.getId().asString();
+		PhotoId photoId = photo.getId();
+		String photoIdAsString = photoId.asString();
 		ImageStorage imageStorage = ImageStorage.getInstance();
-		PhotoSize photoSize;
-		int it = 0;
-		boolean moreSizesExist = true;
-		do{
-			photoSize = PhotoSize.values()[it];
-			it++;
-			Image image = photo.getImage(photoSize);
+		ImageCache imageCache = ImageCache.getInstance();
+		Set<PhotoSize> existingSizes = null;
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			Image image = imageCache.getPendingImage(photoId, photoSize);
 			if (image != null) {
 				try {
-					if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
+					if (existingSizes == null) {
+						existingSizes = imageStorage.getImageSizes(photoIdAsString);
+					}
+					if (!existingSizes.contains(photoSize)) {
 						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
 					}
+					imageCache.markAsSaved(photoId, photoSize);
 				} catch (Exception e) {
 					log.warning(LogBuilder.createSystemMessage().
 							addException("Problem when storing image", e).toString());
-					moreSizesExist = false;
 				}
 			} else {
 				log.config(LogBuilder.createSystemMessage().
-						addParameter("No image for size", photoSize.asString()).toString());
-				moreSizesExist = false;
+						addParameter("No new image for size", photoSize.asString()).toString());
 			}
-		} while (it < PhotoSize.values().length && moreSizesExist);
+		}
 	}
 
 	/**
-	 * Removes all tags of the Photo (obj) in the datastore that have been removed by the user and adds all new tags of
-	 * the photo to the datastore.
+	 * Brings the Tag entities of the photo in the datastore in line with its current tags. Only the difference is
+	 * written: removed tags are deleted and new tags are added, each in one batch. If the tags did not change, nothing
+	 * is written. Updates of the same photo run one after the other, as they share its persisted tags.
 	 */
 	protected void updateTags(Photo photo) {
-		// delete all existing tags, for the case that some have been removed
-		deleteObjects(Tag.class, Tag.PHOTO_ID, photo.getId().asString());
+		synchronized (photo) {
+			doUpdateTags(photo);
+		}
+	}
 
-		// add all current tags to the datastore
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doUpdateTags(Photo photo) {
 		Set<String> tags = new HashSet<String>();
 		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			Tag tag = new Tag(i.next(), photo.getId().asString());
-			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
-			writeObject(tag);
+
+		List<Tag> removedTags = new ArrayList<Tag>();
+		Map<String, Tag> persistedTags = getPersistedTags(photo, removedTags);
+		for (Iterator<Map.Entry<String, Tag>> i = persistedTags.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<String, Tag> entry = i.next();
+			if (!tags.contains(entry.getKey())) {
+				removedTags.add(entry.getValue());
+				i.remove();
+			}
+		}
+
+		List<Tag> addedTags = new ArrayList<Tag>();
+		for (String text : tags) {
+			if (!persistedTags.containsKey(text)) {
+				addedTags.add(new Tag(text, photo.getIdAsString()));
+			}
 		}
+
+		deleteObjects(removedTags);
+		writeObjects(addedTags);
+		for (Tag tag : addedTags) {
+			tag.resetWriteCount();
+			persistedTags.put(tag.getText(), tag);
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("Photo", photo.getIdAsString()).
+				addParameter("deleted tags", removedTags.size()).
+				addParameter("added tags", addedTags.size()).toString());
+
+		photoTagIndex.updatePhoto(photo.getId(), tags);
+		updateVisibility(photo);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the Tag entities of the photo by text. They are read from the datastore only the first time; duplicate
+	 * entities found there are added to duplicates.
+	 */
+	protected Map<String, Tag> getPersistedTags(Photo photo, Collection<Tag> duplicates) {
+		Map<String, Tag> result = photo.getPersistedTags();
+		if (result == null) {
+			List<Tag> tags = new ArrayList<Tag>();
+			readObjects(tags, Tag.class, Tag.PHOTO_ID, photo.getIdAsString());
+			result = new HashMap<String, Tag>();
+			for (Tag tag : tags) {
+				if (result.containsKey(tag.getText())) {
+					duplicates.add(tag);
+				} else {
+					result.put(tag.getText(), tag);
+				}
+			}
+			photo.setPersistedTags(result);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the current tags of the photo to the PhotoTagIndex without touching the Datastore.
+	 */
+	protected void indexTags(Photo photo) {
+		Set<String> tags = new HashSet<String>();
+		photoTagCollector.collect(tags, photo);
+		photoTagIndex.updatePhoto(photo.getId(), tags);
+		updateVisibility(photo);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Brings the visibility of the photo in the PhotoTagIndex in line with its status.
+	 */
+	public void updateVisibility(Photo photo) {
+		photoTagIndex.setVisible(photo.getId(), photo.isVisible());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoTagIndex getPhotoTagIndex() {
+		return photoTagIndex;
 	}
 
 	/**
@@ -307,19 +558,50 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype get
 	 */
-	public Map<PhotoId, Photo> getPhotoCache() {
+	public BoundedCache<PhotoId, Photo> getPhotoCache() {
 		return photoCache;
 	}
 
 	/**
-	 *
+	 * Cached instances take precedence over freshly loaded ones, which may lack unsaved changes.
 	 */
 	public Set<Photo> findPhotosByOwner(String ownerName) {
+		Set<Photo> loaded = new HashSet<Photo>();
+		readObjects(loaded, Photo.class, Photo.OWNER_ID, ownerName);
+
 		Set<Photo> result = new HashSet<Photo>();
-		readObjects(result, Photo.class, Photo.OWNER_ID, ownerName);
+		for (Iterator<Photo> i = loaded.iterator(); i.hasNext(); ) {
+			Photo photo = i.next();
+			if (!doHasPhoto(photo.getId())) {
+				photo.resetWriteCount();
+			}
+			result.add(doAddPhotoIfAbsent(photo));
+		}
 
-		for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-			doAddPhoto(i.next());
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns all photos with praise their owners have not been notified about. The Datastore is queried, as the
+	 * photo cache does not hold all photos; cached photos take precedence, as their praise may not be saved yet.
+	 */
+	public Set<Photo> findPhotosWithNewPraise() {
+		Set<Photo> loaded = new HashSet<Photo>();
+		readObjects(loaded, Photo.class, Photo.NEW_PRAISE, true);
+
+		Set<Photo> result = new HashSet<Photo>();
+		for (Photo photo : loaded) {
+			if (!doHasPhoto(photo.getId())) {
+				photo.resetWriteCount();
+			}
+			result.add(doAddPhotoIfAbsent(photo));
+		}
+		for (Photo photo : photoCache.values()) {
+			if (photo.hasNewPraise()) {
+				result.add(photo);
+			}
 		}
 
 		return result;
@@ -333,6 +615,18 @@ public class PhotoManager extends ObjectManager {
 		return getPhotoFromId(filter.getRandomDisplayablePhotoId());
 	}
 
+	/**
+	 * @methodtype factory
+	 *
+	 * Creates a photo from an upload; the upload is only read into memory now.
+	 */
+	public Photo createPhoto(String filename, UploadedImage uploadedImage) throws Exception {
+		if (uploadedImage == null) {
+			throw new IllegalArgumentException("no image has been uploaded");
+		}
+		return createPhoto(filename, uploadedImage.getImage());
+	}
+
 	/**
 	 *
 	 */
@@ -349,6 +643,7 @@ public class PhotoManager extends ObjectManager {
 	public void addPhoto(Photo photo) throws IOException {
 		PhotoId id = photo.getId();
 		assertIsNewPhoto(id);
+		indexTags(photo);
 		doAddPhoto(photo);
 
 		GlobalsManager.getInstance().saveGlobals();
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A PhotoQuery is a boolean expression over tag conditions ("tg:...", "un:...") that is evaluated against the
+ * PhotoTagIndex. The result is a set, so every photo id occurs at most once.
+ *
+ * Queries are written as comma separated clauses that all have to match; a clause may list alternatives separated by
+ * '|', and a leading '-' or '!' negates a tag. For example, "flower, red | blue, -tulip" finds photos tagged flower and
+ * red or blue, but not tulip.
+ */
+public abstract class PhotoQuery implements Serializable {
+
+	/**
+	 *
+	 */
+	public static final char AND_SEPARATOR = Tags.SEPARATOR_CHAR;
+	public static final char OR_SEPARATOR = '|';
+	public static final String NOT_PREFIXES = "-!";
+
+	/**
+	 *
+	 */
+	public static final String TAG_PREFIX = "tg:";
+	public static final String USER_NAME_PREFIX = "un:";
+
+	/**
+	 * A query term, i.e. the text between separators
+	 */
+	protected static final Pattern TERM_PATTERN = Pattern.compile("[^" + AND_SEPARATOR + "\\" + OR_SEPARATOR + "]+");
+
+	/**
+	 * @methodtype factory
+	 */
+	public static AndQuery parse(String query) {
+		List<PhotoQuery> clauses = new ArrayList<PhotoQuery>();
+		if (query != null) {
+			for (String clause : split(query, AND_SEPARATOR)) {
+				PhotoQuery parsedClause = parseClause(clause);
+				if (parsedClause != null) {
+					clauses.add(parsedClause);
+				}
+			}
+		}
+		return new AndQuery(clauses);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Replaces each tag of the query that no photo has by the closest known tag, if there is one within a few edits.
+	 * Separators, negations, and known tags are left as they are.
+	 */
+	public static String correctTypos(String query, PhotoTagIndex index) {
+		Matcher matcher = TERM_PATTERN.matcher(query);
+		StringBuffer result = new StringBuffer();
+		while (matcher.find()) {
+			String replacement = matcher.group();
+			String term = replacement.trim();
+			boolean isNegated = !term.isEmpty() && NOT_PREFIXES.indexOf(term.charAt(0)) != -1;
+			String tag = Tags.asTag(isNegated ? term.substring(1) : term);
+			int maxDistance = getMaxEditDistance(tag);
+			if (maxDistance > 0 && index.getNoPhotoIds(TAG_PREFIX + tag) == 0) {
+				List<String> similarTags = index.getSimilarTags(tag, maxDistance, 1);
+				if (!similarTags.isEmpty()) {
+					int start = replacement.indexOf(term);
+					replacement = replacement.substring(0, start) + (isNegated ? term.substring(0, 1) : "") +
+							similarTags.get(0) + replacement.substring(start + term.length());
+				}
+			}
+			matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+		}
+		matcher.appendTail(result);
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Short tags get no correction, as almost any other short tag is within one or two edits.
+	 */
+	protected static int getMaxEditDistance(String tag) {
+		if (tag.length() < 4) {
+			return 0;
+		}
+		return tag.length() < 8 ? 1 : 2;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static PhotoQuery parseClause(String clause) {
+		List<PhotoQuery> alternatives = new ArrayList<PhotoQuery>();
+		for (String alternative : split(clause, OR_SEPARATOR)) {
+			String term = alternative.trim();
+			boolean isNegated = !term.isEmpty() && NOT_PREFIXES.indexOf(term.charAt(0)) != -1;
+			String tag = Tags.asTag(isNegated ? term.substring(1) : term);
+			if (!tag.isEmpty()) {
+				PhotoQuery tagQuery = new TagQuery(TAG_PREFIX + tag);
+				alternatives.add(isNegated ? new NotQuery(tagQuery) : tagQuery);
+			}
+		}
+
+		if (alternatives.isEmpty()) {
+			return null;
+		}
+		return alternatives.size() == 1 ? alternatives.get(0) : new OrQuery(alternatives);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static String[] split(String value, char separator) {
+		return value.split(Pattern.quote(String.valueOf(separator)));
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the ids of all indexed photos that match the query.
+	 */
+	public abstract PhotoIdSet evaluate(PhotoTagIndex index);
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns an upper bound of the number of matching photos that is cheap to compute; used to order evaluation.
+	 */
+	public abstract int estimateSize(PhotoTagIndex index);
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns those of the candidates that match the query.
+	 */
+	public PhotoIdSet retainMatches(PhotoIdSet candidates, PhotoTagIndex index) {
+		return candidates.and(evaluate(index));
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns those of the candidates that do not match the query.
+	 */
+	public PhotoIdSet removeMatches(PhotoIdSet candidates, PhotoTagIndex index) {
+		return candidates.andNot(evaluate(index));
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public abstract String asString();
+
+}
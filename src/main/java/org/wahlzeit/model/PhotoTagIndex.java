@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.utils.IntBitmap;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in-memory inverted index from tag texts ("tg:...", "un:...", see PhotoTagCollector) to the photos carrying them.
+ * Each tag maps to a posting list of photo ids, stored as a compressed bitmap of their ints. It mirrors the Tag entities in the Datastore and is
+ * kept current by the PhotoManager, so filtering photos does not need a Datastore query.
+ */
+public class PhotoTagIndex {
+
+	/**
+	 *
+	 */
+	protected final Map<String, IntBitmap> postings = new HashMap<String, IntBitmap>();
+
+	/**
+	 * Tags per photo id, needed to remove a photo from the postings of tags it no longer has
+	 */
+	protected final Map<Integer, Set<String>> photoTags = new HashMap<Integer, Set<String>>();
+
+	/**
+	 * All indexed photos, whether they have tags or not
+	 */
+	protected final IntBitmap allPhotoIds = new IntBitmap();
+
+	/**
+	 * Photos whose status is displayable, so that filtering does not need to load the photos to check it
+	 */
+	protected final IntBitmap visiblePhotoIds = new IntBitmap();
+
+	/**
+	 * Texts of all "tg:" tags without the prefix, for completion and typo-tolerant lookup
+	 */
+	protected final TagTrie tagTrie = new TagTrie();
+
+	/**
+	 * @methodtype command
+	 *
+	 * Replaces the tags of a photo with the given ones.
+	 */
+	public synchronized void updatePhoto(PhotoId photoId, Collection<String> tags) {
+		int id = photoId.asInt();
+		Set<String> newTags = new HashSet<String>(tags);
+		Set<String> oldTags = photoTags.put(id, newTags);
+		if (oldTags != null) {
+			for (String tag : oldTags) {
+				if (!newTags.contains(tag)) {
+					removePosting(tag, id);
+				}
+			}
+		}
+
+		for (String tag : newTags) {
+			if (oldTags == null || !oldTags.contains(tag)) {
+				IntBitmap postingList = postings.get(tag);
+				if (postingList == null) {
+					postingList = new IntBitmap();
+					postings.put(tag, postingList);
+				}
+				postingList.add(id);
+				if (tag.startsWith(PhotoQuery.TAG_PREFIX)) {
+					tagTrie.increment(tag.substring(PhotoQuery.TAG_PREFIX.length()));
+				}
+			}
+		}
+		allPhotoIds.add(id);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void removePhoto(PhotoId photoId) {
+		int id = photoId.asInt();
+		Set<String> oldTags = photoTags.remove(id);
+		if (oldTags != null) {
+			for (String tag : oldTags) {
+				removePosting(tag, id);
+			}
+		}
+		allPhotoIds.remove(id);
+		visiblePhotoIds.remove(id);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public synchronized void setVisible(PhotoId photoId, boolean isVisible) {
+		if (isVisible) {
+			visiblePhotoIds.add(photoId.asInt());
+		} else {
+			visiblePhotoIds.remove(photoId.asInt());
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		postings.clear();
+		photoTags.clear();
+		allPhotoIds.clear();
+		visiblePhotoIds.clear();
+		tagTrie.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns up to limit known tags (without "tg:") that start with prefix, the most used first.
+	 */
+	public List<String> getTagCompletions(String prefix, int limit) {
+		return tagTrie.getCompletions(prefix, limit);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns up to limit known tags (without "tg:") within maxDistance edits of tag, the closest first.
+	 */
+	public List<String> getSimilarTags(String tag, int maxDistance, int limit) {
+		return tagTrie.getSimilar(tag, maxDistance, limit);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a copy of the ids of all photos with the given tag.
+	 */
+	public synchronized PhotoIdSet getPhotoIds(String tag) {
+		IntBitmap postingList = postings.get(tag);
+		return postingList != null ? new PhotoIdSet(new IntBitmap(postingList)) : new PhotoIdSet();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns those of the given ids that have the tag, without copying the posting list of the tag.
+	 */
+	public synchronized PhotoIdSet getPhotoIdsWithTag(PhotoIdSet photoIds, String tag) {
+		IntBitmap postingList = postings.get(tag);
+		return postingList != null ? new PhotoIdSet(photoIds.bitmap.and(postingList)) : new PhotoIdSet();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns those of the given ids that do not have the tag.
+	 */
+	public synchronized PhotoIdSet getPhotoIdsWithoutTag(PhotoIdSet photoIds, String tag) {
+		IntBitmap postingList = postings.get(tag);
+		return postingList != null ? new PhotoIdSet(photoIds.bitmap.andNot(postingList)) : new PhotoIdSet(photoIds);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns those of the given ids whose photos are visible.
+	 */
+	public synchronized PhotoIdSet getVisiblePhotoIds(PhotoIdSet photoIds) {
+		return new PhotoIdSet(photoIds.bitmap.and(visiblePhotoIds));
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isVisible(PhotoId photoId) {
+		return visiblePhotoIds.contains(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized PhotoIdSet getAllPhotoIds() {
+		return new PhotoIdSet(new IntBitmap(allPhotoIds));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoPhotoIds() {
+		return allPhotoIds.getCardinality();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoPhotoIds(String tag) {
+		IntBitmap postingList = postings.get(tag);
+		return postingList != null ? postingList.getCardinality() : 0;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean hasPhoto(PhotoId photoId) {
+		return photoTags.containsKey(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoTags() {
+		return postings.size();
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void removePosting(String tag, int id) {
+		IntBitmap postingList = postings.get(tag);
+		if (postingList != null && postingList.contains(id)) {
+			postingList.remove(id);
+			if (tag.startsWith(PhotoQuery.TAG_PREFIX)) {
+				tagTrie.decrement(tag.substring(PhotoQuery.TAG_PREFIX.length()));
+			}
+			if (postingList.isEmpty()) {
+				postings.remove(tag);
+			}
+		}
+	}
+
+}
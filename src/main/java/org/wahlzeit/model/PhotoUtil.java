@@ -21,11 +21,19 @@
 package org.wahlzeit.model;
 
 import com.google.appengine.api.images.Image;
-import com.google.appengine.api.images.ImagesService;
 import com.google.appengine.api.images.ImagesServiceFactory;
-import com.google.appengine.api.images.Transform;
+import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -36,6 +44,66 @@ public class PhotoUtil {
 
 	private static final Logger log = Logger.getLogger(PhotoUtil.class.getName());
 
+	/**
+	 * Renditions of about twice the size, from which the smaller sizes are scaled
+	 */
+	protected static final Map<PhotoSize, PhotoSize> CASCADE_SOURCES = new EnumMap<PhotoSize, PhotoSize>(PhotoSize.class);
+
+	static {
+		CASCADE_SOURCES.put(PhotoSize.MEDIUM, PhotoSize.EXTRA_LARGE);
+		CASCADE_SOURCES.put(PhotoSize.SMALL, PhotoSize.LARGE);
+		CASCADE_SOURCES.put(PhotoSize.EXTRA_SMALL, PhotoSize.MEDIUM);
+		CASCADE_SOURCES.put(PhotoSize.THUMB, PhotoSize.EXTRA_SMALL);
+	}
+
+	/**
+	 * Sizes that are created on upload; all others are created on first request by the RenditionGenerator
+	 */
+	protected static volatile Set<PhotoSize> eagerSizes = EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM);
+
+	/**
+	 * @methodtype command
+	 *
+	 * Applies the eager sizes of the SysConfig.
+	 */
+	public static void configure() {
+		setEagerSizes(parsePhotoSizes(SysConfig.getInstance().getValue(SysConfig.EAGER_PHOTO_SIZES)));
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("eager photo sizes", eagerSizes.toString()).toString());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static Set<PhotoSize> getEagerSizes() {
+		return EnumSet.copyOf(eagerSizes);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setEagerSizes(Set<PhotoSize> sizes) {
+		if (sizes == null) {
+			throw new IllegalArgumentException("eager sizes must not be null");
+		}
+		eagerSizes = sizes.isEmpty() ? EnumSet.noneOf(PhotoSize.class) : EnumSet.copyOf(sizes);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Parses a comma separated list of size names like "thumb, medium".
+	 */
+	public static Set<PhotoSize> parsePhotoSizes(String sizes) {
+		Set<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		for (String size : sizes.split(",")) {
+			if (!size.trim().isEmpty()) {
+				result.add(PhotoSize.getFromString(size.trim()));
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * @methodtype creation
 	 */
@@ -53,7 +121,11 @@ public class PhotoUtil {
 	}
 
 	/**
-	 *
+	 * Creates the eager renditions the source is large enough for, and the largest rendition it is large enough for,
+	 * from which the other sizes are created on demand. The largest renditions are scaled from the source, the others
+	 * from the next larger rendition of about twice their size, which needs far less work for the same quality.
+	 * All scale operations run asynchronously on the ImageScaler: a rendition starts as soon as its source is available,
+	 * so the total latency is about that of the largest resize plus the much smaller ones derived from it.
 	 */
 	public static void createImageFiles(Image source, Photo photo) throws Exception {
 		assertIsValidImage(source);
@@ -62,49 +134,158 @@ public class PhotoUtil {
 		int sourceHeight = source.getHeight();
 		assertHasValidSize(sourceWidth, sourceHeight);
 
-		for (PhotoSize size : PhotoSize.values()) {
-			if (!size.isWiderAndHigher(sourceWidth, sourceHeight)) {
-				scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), size, photo);
+		List<ImageScaler.ScalingStep> steps = getScalingSteps(sourceWidth, sourceHeight);
+		Map<PhotoSize, Future<Image>> renditions = ImageScaler.getInstance().scaleAllAsync(source, steps);
+
+		for (Map.Entry<PhotoSize, Future<Image>> entry : renditions.entrySet()) {
+			photo.setImage(entry.getKey(), getRendition(entry.getValue()));
+			log.config(LogBuilder.createSystemMessage().
+					addParameter("Scaled image to size", entry.getKey().asString()).toString());
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the steps that create the renditions of a new photo, from the largest to the smallest rendition.
+	 */
+	public static List<ImageScaler.ScalingStep> getScalingSteps(int sourceWidth, int sourceHeight) {
+		Set<PhotoSize> sizesToCreate = getSizesToCreate(sourceWidth, sourceHeight);
+		PhotoSize[] sizes = PhotoSize.values();
+		List<ImageScaler.ScalingStep> result = new ArrayList<ImageScaler.ScalingStep>();
+		for (int i = sizes.length - 1; i >= 0; i--) {
+			PhotoSize size = sizes[i];
+			if (sizesToCreate.contains(size)) {
+				PhotoSize scalingSource = getScalingSource(size, sourceWidth, sourceHeight, sizesToCreate);
+				int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
+				int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
+				result.add(new ImageScaler.ScalingStep(size, scalingSource, targetWidth, targetHeight));
 			}
 		}
+		return result;
 	}
 
 	/**
-	 * @methodtype assertion
+	 * @methodtype get
+	 *
+	 * Returns the eager sizes the source is large enough for, plus the largest size it is large enough for.
 	 */
-	protected static void assertIsValidImage(Image image) {
-		if (image == null) {
-			throw new IllegalArgumentException("Image = null!");
+	public static Set<PhotoSize> getSizesToCreate(int sourceWidth, int sourceHeight) {
+		Set<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		for (PhotoSize size : eagerSizes) {
+			if (!size.isWiderAndHigher(sourceWidth, sourceHeight)) {
+				result.add(size);
+			}
 		}
+		result.add(PhotoSize.getFromWidthHeight(sourceWidth, sourceHeight));
+		return result;
 	}
 
 	/**
+	 * @methodtype get
 	 *
+	 * Returns the rendition to scale the given size from, or null if it has to be scaled from the source because the
+	 * source is too small for that rendition.
 	 */
-	protected static void assertHasValidSize(int cw, int ch) {
-		if (PhotoSize.THUMB.isWiderAndHigher(cw, ch)) {
-			throw new IllegalArgumentException("Photo too small!");
+	public static PhotoSize getScalingSource(PhotoSize size, int sourceWidth, int sourceHeight) {
+		return getScalingSource(size, sourceWidth, sourceHeight, EnumSet.allOf(PhotoSize.class));
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Like getScalingSource, but only considers the available renditions. If the cascade source is not available, its
+	 * own cascade source is tried, and so on.
+	 */
+	public static PhotoSize getScalingSource(PhotoSize size, int sourceWidth, int sourceHeight,
+											 Set<PhotoSize> availableSizes) {
+		for (PhotoSize result = CASCADE_SOURCES.get(size); result != null; result = CASCADE_SOURCES.get(result)) {
+			if (result.isWiderAndHigher(sourceWidth, sourceHeight)) {
+				return null;
+			} else if (availableSizes.contains(result)) {
+				return result;
+			}
 		}
+		return null;
 	}
 
 	/**
-	 * @methodtype command Scale the source picture to the given size, store it in the datastore and reference it in the
-	 * photo.
+	 * @methodtype creation
+	 *
+	 * Creates a rendition of an existing photo from one of its stored renditions: the cascade source if there is one,
+	 * otherwise the largest rendition. Returns null if the photo has no larger rendition to scale from.
 	 */
-	protected static void scaleImage(Image source, PhotoSize size, Photo photo) throws Exception {
-		int sourceWidth = source.getWidth();
-		int sourceHeight = source.getHeight();
+	public static Image createRendition(Photo photo, PhotoSize size) throws Exception {
+		int sourceWidth = photo.getWidth();
+		int sourceHeight = photo.getHeight();
+		Set<PhotoSize> availableSizes = getAvailableSizes(photo.getId());
+
+		PhotoSize scalingSource = getScalingSource(size, sourceWidth, sourceHeight, availableSizes);
+		if (scalingSource == null) {
+			for (PhotoSize candidate : availableSizes) {
+				if (size.isSmaller(candidate)) {
+					scalingSource = candidate;
+				}
+			}
+		}
+		if (scalingSource == null) {
+			return null;
+		}
+
+		Image source = ImageCache.getInstance().getImage(photo.getId(), scalingSource);
+		if (source == null) {
+			return null;
+		}
 
+		Image input = ImagesServiceFactory.makeImage(source.getImageData());
 		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
 		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
+		return getRendition(ImageScaler.getInstance().scaleAsync(input, targetWidth, targetHeight));
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the sizes that are in the ImageStorage or still waiting to be written to it.
+	 */
+	protected static Set<PhotoSize> getAvailableSizes(PhotoId photoId) {
+		Set<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		result.addAll(ImageStorage.getInstance().getImageSizes(photoId.asString()));
+		for (PhotoSize size : PhotoSize.values()) {
+			if (ImageCache.getInstance().getPendingImage(photoId, size) != null) {
+				result.add(size);
+			}
+		}
+		return result;
+	}
 
-		ImagesService imagesService = ImagesServiceFactory.getImagesService();
-		Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
-		Image newImage = imagesService.applyTransform(resize, source);
+	/**
+	 * @methodtype helper
+	 */
+	protected static Image getRendition(Future<Image> rendition) throws Exception {
+		try {
+			return rendition.get();
+		} catch (ExecutionException ex) {
+			throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+		}
+	}
 
-		photo.setImage(size, newImage);
+	/**
+	 * @methodtype assertion
+	 */
+	protected static void assertIsValidImage(Image image) {
+		if (image == null) {
+			throw new IllegalArgumentException("Image = null!");
+		}
+	}
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Scaled image to size", size.asString()).toString());
+	/**
+	 *
+	 */
+	protected static void assertHasValidSize(int cw, int ch) {
+		if (PhotoSize.THUMB.isWiderAndHigher(cw, ch)) {
+			throw new IllegalArgumentException("Photo too small!");
+		}
 	}
 
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.StoredImage;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * The RenditionGenerator creates renditions that were not created on upload when they are requested for the first
+ * time, writes them to the ImageStorage and adds them to the ImageCache. Concurrent requests for the same rendition
+ * wait for one and the same computation instead of each scaling the image.
+ */
+public class RenditionGenerator {
+
+	private static final Logger log = Logger.getLogger(RenditionGenerator.class.getName());
+
+	/**
+	 *
+	 */
+	protected static final RenditionGenerator instance = new RenditionGenerator();
+
+	/**
+	 * Renditions that are being created right now
+	 */
+	protected final ConcurrentMap<ImageCache.ImageKey, FutureTask<Image>> inFlight =
+			new ConcurrentHashMap<ImageCache.ImageKey, FutureTask<Image>>();
+
+	/**
+	 *
+	 */
+	protected final AtomicLong noCreatedImages = new AtomicLong();
+
+	/**
+	 * @methodtype get
+	 */
+	public static RenditionGenerator getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a handle for streaming the rendition, creating it first if necessary. Returns null if the photo does
+	 * not exist or is too small for that size.
+	 */
+	public StoredImage openImage(PhotoId photoId, PhotoSize photoSize) {
+		StoredImage result = ImageCache.getInstance().openImage(photoId, photoSize);
+		if (result == null && getOrCreateImage(photoId, photoSize) != null) {
+			result = ImageCache.getInstance().openImage(photoId, photoSize);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the rendition, creating it first if necessary.
+	 */
+	public Image getImage(PhotoId photoId, PhotoSize photoSize) {
+		Image result = ImageCache.getInstance().getImage(photoId, photoSize);
+		if (result == null) {
+			result = getOrCreateImage(photoId, photoSize);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoCreatedImages() {
+		return noCreatedImages.get();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * The first caller for a rendition runs the computation, all others wait for its result. The task is forgotten
+	 * once it is done; by then the rendition is in the ImageStorage and the ImageCache.
+	 */
+	protected Image getOrCreateImage(final PhotoId photoId, final PhotoSize photoSize) {
+		ImageCache.ImageKey key = new ImageCache.ImageKey(photoId, photoSize);
+		FutureTask<Image> task = inFlight.get(key);
+		if (task == null) {
+			FutureTask<Image> newTask = new FutureTask<Image>(new Callable<Image>() {
+				@Override
+				public Image call() throws Exception {
+					return createImage(photoId, photoSize);
+				}
+			});
+			task = inFlight.putIfAbsent(key, newTask);
+			if (task == null) {
+				task = newTask;
+				try {
+					newTask.run();
+				} finally {
+					inFlight.remove(key, newTask);
+				}
+			}
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ex) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("size", photoSize.asString()).
+					addParameter("photo ID", photoId.asString()).
+					addException("Problem when creating image", ex.getCause()).toString());
+		}
+		return null;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Scales the rendition from a stored one and stores it. Returns null if the photo cannot have that size.
+	 */
+	protected Image createImage(PhotoId photoId, PhotoSize photoSize) throws Exception {
+		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
+		if (photo == null || !photo.hasPhotoSize(photoSize)) {
+			return null;
+		}
+
+		// another request may have finished the same rendition just before this one started
+		Image result = ImageCache.getInstance().getImage(photoId, photoSize);
+		if (result != null) {
+			return result;
+		}
+
+		result = PhotoUtil.createRendition(photo, photoSize);
+		if (result != null) {
+			ImageStorage.getInstance().writeImage(result, photoId.asString(), photoSize.asInt());
+			ImageCache.getInstance().putImage(photoId, photoSize, result);
+			noCreatedImages.incrementAndGet();
+			log.info(LogBuilder.createSystemMessage().
+					addAction("created image on demand").
+					addParameter("size", photoSize.asString()).
+					addParameter("photo ID", photoId.asString()).toString());
+		}
+		return result;
+	}
+
+}
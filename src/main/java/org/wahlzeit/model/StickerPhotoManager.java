@@ -22,18 +22,10 @@ public class StickerPhotoManager extends PhotoManager {
 	}
 
 	@Override
-	public Photo getPhotoFromId(PhotoId id) {
-		if (id == null) {
-			return null;
-		}
-
-		Photo result = doGetPhotoFromId(id);
-
+	protected Photo loadPhoto(PhotoId id) {
+		Photo result = StickerPhotoFactory.getInstance().loadPhoto(id);
 		if (result == null) {
-			result = StickerPhotoFactory.getInstance().loadPhoto(id);
-			if (result != null) {
-				doAddPhoto(result);
-			}
+			result = super.loadPhoto(id);
 		}
 
 		return result;
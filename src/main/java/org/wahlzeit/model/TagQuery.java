@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+/**
+ * Matches all photos with one tag condition, e.g. "tg:flower".
+ */
+public class TagQuery extends PhotoQuery {
+
+	/**
+	 *
+	 */
+	protected final String condition;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public TagQuery(String condition) {
+		this.condition = condition;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getCondition() {
+		return condition;
+	}
+
+	@Override
+	public PhotoIdSet evaluate(PhotoTagIndex index) {
+		return index.getPhotoIds(condition);
+	}
+
+	@Override
+	public int estimateSize(PhotoTagIndex index) {
+		return index.getNoPhotoIds(condition);
+	}
+
+	@Override
+	public PhotoIdSet retainMatches(PhotoIdSet candidates, PhotoTagIndex index) {
+		return index.getPhotoIdsWithTag(candidates, condition);
+	}
+
+	@Override
+	public PhotoIdSet removeMatches(PhotoIdSet candidates, PhotoTagIndex index) {
+		return index.getPhotoIdsWithoutTag(candidates, condition);
+	}
+
+	@Override
+	public String asString() {
+		return condition;
+	}
+
+}
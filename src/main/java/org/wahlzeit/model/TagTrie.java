@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A trie over tag texts that counts how many photos carry each tag. It answers prefix completions (most used tags
+ * first) and lookups of tags within a bounded edit distance, so typos can be matched to known tags. Children are
+ * kept in sorted arrays, which is compact for the short alphabet of tags (see Tags.asTag). Every node keeps the
+ * MAX_TOP_TAGS most used tags below it, so short or empty prefixes are completed without walking the subtree.
+ */
+public class TagTrie {
+
+	/**
+	 *
+	 */
+	public static final int MAX_TOP_TAGS = 20;
+
+	/**
+	 * Orders matches by distance, then by count (most used first), then by tag
+	 */
+	protected static final Comparator<Match> MATCH_ORDER = new Comparator<Match>() {
+		@Override
+		public int compare(Match a, Match b) {
+			if (a.distance != b.distance) {
+				return Integer.compare(a.distance, b.distance);
+			}
+			if (a.count != b.count) {
+				return Integer.compare(b.count, a.count);
+			}
+			return a.tag.compareTo(b.tag);
+		}
+	};
+
+	/**
+	 *
+	 */
+	protected final Node root = new Node();
+	protected int noTags = 0;
+
+	/**
+	 * @methodtype command
+	 *
+	 * Counts one more photo with the tag.
+	 */
+	public synchronized void increment(String tag) {
+		Node[] path = new Node[tag.length() + 1];
+		path[0] = root;
+		for (int i = 0; i < tag.length(); i++) {
+			path[i + 1] = path[i].getOrCreateChild(tag.charAt(i));
+		}
+
+		Node node = path[tag.length()];
+		if (node.count++ == 0) {
+			noTags++;
+		}
+
+		// a tag that does not make it into the top tags of a node does not make it into those of its ancestors
+		Match match = new Match(tag, 0, node.count);
+		for (int i = tag.length(); i >= 0 && path[i].offerTopTag(match); i--) {
+			// continue with the parent
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Counts one photo less with the tag; the tag is removed when no photo carries it anymore.
+	 */
+	public synchronized void decrement(String tag) {
+		Node[] path = new Node[tag.length() + 1];
+		path[0] = root;
+		for (int i = 0; i < tag.length(); i++) {
+			path[i + 1] = path[i].getChild(tag.charAt(i));
+			if (path[i + 1] == null) {
+				return;
+			}
+		}
+
+		Node node = path[tag.length()];
+		if (node.count == 0) {
+			return;
+		}
+		int lastUsed = tag.length();
+		if (--node.count == 0) {
+			noTags--;
+			for (; lastUsed > 0 && path[lastUsed].isUnused(); lastUsed--) {
+				path[lastUsed - 1].removeChild(tag.charAt(lastUsed - 1));
+			}
+		}
+
+		// the top tags of a node only change if they contain the tag, and then those of its parent may change, too
+		for (int i = lastUsed; i >= 0 && path[i].hasTopTag(tag); i--) {
+			path[i].updateTopTags(tag.substring(0, i));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		root.labels = new char[0];
+		root.children = new Node[0];
+		root.noChildren = 0;
+		root.count = 0;
+		root.topTags = new ArrayList<Match>(0);
+		noTags = 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getCount(String tag) {
+		Node node = findNode(tag);
+		return node != null ? node.count : 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoTags() {
+		return noTags;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns up to limit tags starting with prefix, the most used first.
+	 */
+	public synchronized List<String> getCompletions(String prefix, int limit) {
+		Node node = findNode(prefix);
+		if (node != null && limit <= MAX_TOP_TAGS) {
+			List<String> result = new ArrayList<String>(Math.min(limit, node.topTags.size()));
+			for (int i = 0; i < node.topTags.size() && i < limit; i++) {
+				result.add(node.topTags.get(i).tag);
+			}
+			return result;
+		}
+
+		List<Match> matches = new ArrayList<Match>();
+		if (node != null) {
+			collectAll(node, new StringBuilder(prefix), matches);
+		}
+		return asSortedTags(matches, limit);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns up to limit tags whose Levenshtein distance to word is at most maxDistance, the closest and then most
+	 * used first. Walks the trie with one row of the distance matrix per node and prunes branches that cannot get
+	 * within maxDistance anymore.
+	 */
+	public synchronized List<String> getSimilar(String word, int maxDistance, int limit) {
+		List<Match> matches = new ArrayList<Match>();
+		int[] firstRow = new int[word.length() + 1];
+		for (int i = 0; i < firstRow.length; i++) {
+			firstRow[i] = i;
+		}
+		if (root.count > 0 && firstRow[word.length()] <= maxDistance) {
+			matches.add(new Match("", firstRow[word.length()], root.count));
+		}
+		for (int i = 0; i < root.noChildren; i++) {
+			collectSimilar(root.children[i], root.labels[i], new StringBuilder(), word, firstRow, maxDistance, matches);
+		}
+		return asSortedTags(matches, limit);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void collectSimilar(Node node, char label, StringBuilder path, String word, int[] previousRow,
+								  int maxDistance, List<Match> matches) {
+		path.append(label);
+		int[] row = new int[previousRow.length];
+		row[0] = previousRow[0] + 1;
+		int minDistance = row[0];
+		for (int i = 1; i < row.length; i++) {
+			int substitution = previousRow[i - 1] + (word.charAt(i - 1) == label ? 0 : 1);
+			row[i] = Math.min(substitution, Math.min(row[i - 1] + 1, previousRow[i] + 1));
+			minDistance = Math.min(minDistance, row[i]);
+		}
+
+		if (node.count > 0 && row[word.length()] <= maxDistance) {
+			matches.add(new Match(path.toString(), row[word.length()], node.count));
+		}
+		if (minDistance <= maxDistance) {
+			for (int i = 0; i < node.noChildren; i++) {
+				collectSimilar(node.children[i], node.labels[i], path, word, row, maxDistance, matches);
+			}
+		}
+		path.setLength(path.length() - 1);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void collectAll(Node node, StringBuilder path, List<Match> matches) {
+		if (node.count > 0) {
+			matches.add(new Match(path.toString(), 0, node.count));
+		}
+		for (int i = 0; i < node.noChildren; i++) {
+			path.append(node.labels[i]);
+			collectAll(node.children[i], path, matches);
+			path.setLength(path.length() - 1);
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected Node findNode(String tag) {
+		Node node = root;
+		for (int i = 0; i < tag.length() && node != null; i++) {
+			node = node.getChild(tag.charAt(i));
+		}
+		return node;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected List<String> asSortedTags(List<Match> matches, int limit) {
+		Collections.sort(matches, MATCH_ORDER);
+
+		List<String> result = new ArrayList<String>(Math.min(limit, matches.size()));
+		for (int i = 0; i < matches.size() && i < limit; i++) {
+			result.add(matches.get(i).tag);
+		}
+		return result;
+	}
+
+	/**
+	 * A trie node; count is the number of photos with the tag that ends here, and topTags are the most used tags at
+	 * or below this node in MATCH_ORDER.
+	 */
+	protected static class Node {
+
+		protected char[] labels = new char[0];
+		protected Node[] children = new Node[0];
+		protected int noChildren = 0;
+		protected int count = 0;
+		protected List<Match> topTags = new ArrayList<Match>(0);
+
+		/**
+		 * @methodtype command
+		 *
+		 * Puts the match of a tag whose count has grown into the top tags; returns false if it is not among them.
+		 */
+		protected boolean offerTopTag(Match match) {
+			for (int i = 0; i < topTags.size(); i++) {
+				if (topTags.get(i).tag.equals(match.tag)) {
+					topTags.remove(i);
+					break;
+				}
+			}
+
+			int index = Collections.binarySearch(topTags, match, MATCH_ORDER);
+			index = index >= 0 ? index : -index - 1;
+			if (index >= MAX_TOP_TAGS) {
+				return false;
+			}
+			topTags.add(index, match);
+			if (topTags.size() > MAX_TOP_TAGS) {
+				topTags.remove(MAX_TOP_TAGS);
+			}
+			return true;
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean hasTopTag(String tag) {
+			for (Match match : topTags) {
+				if (match.tag.equals(tag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @methodtype command
+		 *
+		 * Recomputes the top tags from this node's own tag and the top tags of its children.
+		 */
+		protected void updateTopTags(String tag) {
+			List<Match> matches = new ArrayList<Match>();
+			if (count > 0) {
+				matches.add(new Match(tag, 0, count));
+			}
+			for (int i = 0; i < noChildren; i++) {
+				matches.addAll(children[i].topTags);
+			}
+			Collections.sort(matches, MATCH_ORDER);
+			topTags = new ArrayList<Match>(matches.subList(0, Math.min(MAX_TOP_TAGS, matches.size())));
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected Node getChild(char label) {
+			int index = Arrays.binarySearch(labels, 0, noChildren, label);
+			return index >= 0 ? children[index] : null;
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected Node getOrCreateChild(char label) {
+			int index = Arrays.binarySearch(labels, 0, noChildren, label);
+			if (index >= 0) {
+				return children[index];
+			}
+
+			index = -index - 1;
+			if (noChildren == labels.length) {
+				int capacity = Math.max(2, 2 * labels.length);
+				labels = Arrays.copyOf(labels, capacity);
+				children = Arrays.copyOf(children, capacity);
+			}
+			System.arraycopy(labels, index, labels, index + 1, noChildren - index);
+			System.arraycopy(children, index, children, index + 1, noChildren - index);
+			Node result = new Node();
+			labels[index] = label;
+			children[index] = result;
+			noChildren++;
+			return result;
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void removeChild(char label) {
+			int index = Arrays.binarySearch(labels, 0, noChildren, label);
+			if (index >= 0) {
+				System.arraycopy(labels, index + 1, labels, index, noChildren - index - 1);
+				System.arraycopy(children, index + 1, children, index, noChildren - index - 1);
+				children[--noChildren] = null;
+			}
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean isUnused() {
+			return count == 0 && noChildren == 0;
+		}
+
+	}
+
+	/**
+	 * A tag found by a lookup
+	 */
+	protected static class Match {
+
+		protected final String tag;
+		protected final int distance;
+		protected final int count;
+
+		protected Match(String tag, int distance, int count) {
+			this.tag = tag;
+			this.distance = distance;
+			this.count = count;
+		}
+
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+
+/**
+ * An uploaded image file, received into a temporary file while the request body is read. It is only read and decoded
+ * when a photo is created from it, so an upload waiting for its form handler costs disk space instead of heap.
+ */
+public class UploadedImage implements Serializable {
+
+	/**
+	 *
+	 */
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 *
+	 */
+	protected final File file;
+	protected final long length;
+
+	/**
+	 * Decoded on first access
+	 */
+	protected transient Image image = null;
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Copies the stream into a new file in the given directory, or in the default temporary directory if it is null.
+	 * Fails as soon as more than maxLength bytes have been read; nothing is kept of a failed upload.
+	 */
+	public static UploadedImage receive(InputStream in, File dir, long maxLength) throws IOException {
+		File file = File.createTempFile("upload-", ".tmp", dir);
+		boolean isReceived = false;
+		try {
+			long length = 0;
+			try (OutputStream out = new FileOutputStream(file)) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				for (int bytesRead = in.read(buffer); bytesRead != -1; bytesRead = in.read(buffer)) {
+					length += bytesRead;
+					if (length > maxLength) {
+						throw new SizeLimitExceededException(maxLength);
+					}
+					out.write(buffer, 0, bytesRead);
+				}
+			}
+			isReceived = true;
+			return new UploadedImage(file, length);
+		} finally {
+			if (!isReceived) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public UploadedImage(File file, long length) {
+		if (file == null) {
+			throw new IllegalArgumentException("file must not be null");
+		}
+		this.file = file;
+		this.length = length;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Reads the file into exactly one array of its size and wraps it as an image.
+	 */
+	public synchronized Image getImage() throws IOException {
+		if (image == null) {
+			image = ImagesServiceFactory.makeImage(Files.readAllBytes(file.toPath()));
+		}
+		return image;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Deletes the file and forgets the decoded image.
+	 */
+	public synchronized void dispose() {
+		image = null;
+		file.delete();
+	}
+
+	/**
+	 * Thrown when an upload is larger than allowed.
+	 */
+	public static class SizeLimitExceededException extends IOException {
+
+		/**
+		 * @methodtype constructor
+		 */
+		public SizeLimitExceededException(long maxLength) {
+			super("upload is larger than " + maxLength + " bytes");
+		}
+
+	}
+
+}
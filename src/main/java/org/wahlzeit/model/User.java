@@ -20,7 +20,6 @@
 
 package org.wahlzeit.model;
 
-import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Subclass;
 import org.wahlzeit.services.EmailAddress;
@@ -74,7 +73,7 @@ public class User extends Client {
 	protected Photo userPhoto = null;
 	protected Set<Photo> photos = new HashSet<Photo>();
 	@Ignore // only used as temporary variable
-	protected Image uploadedImage = null;
+	protected UploadedImage uploadedImage = null;
 
 	/**
 	 *
@@ -297,15 +296,20 @@ public class User extends Client {
 
 	/**
 	 * @methodtype set
+	 *
+	 * Replaces the uploaded image; the file of a previous upload that has not been used is deleted.
 	 */
-	public void setUploadedImage(Image image) {
+	public void setUploadedImage(UploadedImage image) {
+		if (uploadedImage != null && uploadedImage != image) {
+			uploadedImage.dispose();
+		}
 		uploadedImage = image;
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public Image getUploadedImage() {
+	public UploadedImage getUploadedImage() {
 		return uploadedImage;
 	}
 }
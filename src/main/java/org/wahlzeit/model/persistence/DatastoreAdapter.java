@@ -22,17 +22,31 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.OfyService;
 import org.wahlzeit.utils.PatternInstance;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Logger;
 
 /**
@@ -48,23 +62,54 @@ public class DatastoreAdapter extends ImageStorage {
 
 	private static final Logger log = Logger.getLogger(DatastoreAdapter.class.getName());
 
+	/**
+	 * Chunks are saved in batches, so that one request stays well below the Datastore limit of 10 MB
+	 */
+	public static final int MAX_CHUNKS_PER_BATCH = 8;
 
+
+	/**
+	 * Images larger than ImageWrapper.CHUNK_SIZE are split into ImageChunks. The chunks are written first under a new
+	 * generation, then the ImageWrapper that points to them, and only then the chunks of the replaced image are
+	 * deleted. Readers therefore see either the old or the new image, never a mix. Renditions of one photo may be
+	 * written concurrently, so the size is added to the manifest in a transaction, see addToManifest.
+	 */
 	@Override
 	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
 			throws IOException, InvalidParameterException {
 		if (image instanceof Image) {
-			final ImageWrapper imageWrapper = new ImageWrapper(photoIdAsString + size);
-			imageWrapper.setImage((Image) image);
+			final String id = photoIdAsString + size;
+			final ImageWrapper oldImageWrapper = loadImageWrapper(id);
+			final ImageWrapper imageWrapper = new ImageWrapper(id);
+			final List<ImageChunk> chunks = imageWrapper.setImage((Image) image);
+
+			readManifest(photoIdAsString); // creates the manifest of images written before manifests existed
 
 			ObjectifyService.run(new Work<Boolean>() {
 				@Override
 				public Boolean run() {
+					List<Result<?>> results = new ArrayList<Result<?>>();
+					for (int i = 0; i < chunks.size(); i += MAX_CHUNKS_PER_BATCH) {
+						List<ImageChunk> batch = chunks.subList(i, Math.min(chunks.size(), i + MAX_CHUNKS_PER_BATCH));
+						results.add(OfyService.ofy().save().entities(batch));
+					}
+					for (Result<?> result : results) {
+						result.now();
+					}
+
 					OfyService.ofy().save().entity(imageWrapper).now();
+					addToManifest(photoIdAsString, PhotoSize.getFromInt(size));
+
+					if (oldImageWrapper != null && oldImageWrapper.isChunked()) {
+						OfyService.ofy().delete().keys(oldImageWrapper.getChunkKeys()).now();
+					}
 					return null;
 				}
 			});
 
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+			log.config(LogBuilder.createSystemMessage().
+					addMessage("image successfully written").
+					addParameter("chunks", chunks.size()).toString());
 		} else {
 			log.warning(LogBuilder.createSystemMessage().
 					addMessage("did not get an Image type to store").
@@ -76,15 +121,12 @@ public class DatastoreAdapter extends ImageStorage {
 	protected Image doReadImage(final String photoIdAsString, final int size) throws IOException {
 		Image result = null;
 
-		ImageWrapper imageWrapper = ObjectifyService.run(new Work<ImageWrapper>() {
-			@Override
-			public ImageWrapper run() {
-				return OfyService.ofy().load().type(ImageWrapper.class).id(photoIdAsString + size).now();
-			}
-		});
-
+		final ImageWrapper imageWrapper = loadImageWrapper(photoIdAsString + size);
 		if (imageWrapper == null) {
 			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+		} else if (imageWrapper.isChunked()) {
+			result = ImagesServiceFactory.makeImage(readChunks(imageWrapper));
+			log.config(LogBuilder.createSystemMessage().addMessage("chunked image successfully read").toString());
 		} else {
 			result = imageWrapper.getImage();
 			if (result != null) {
@@ -96,26 +138,162 @@ public class DatastoreAdapter extends ImageStorage {
 		return result;
 	}
 
+	/**
+	 * @methodtype helper
+	 *
+	 * Loads all chunks of the image with one batch get, whose lookups the Datastore runs in parallel.
+	 */
+	protected byte[] readChunks(final ImageWrapper imageWrapper) throws IOException {
+		Map<Key<ImageChunk>, ImageChunk> chunks = ObjectifyService.run(new Work<Map<Key<ImageChunk>, ImageChunk>>() {
+			@Override
+			public Map<Key<ImageChunk>, ImageChunk> run() {
+				return OfyService.ofy().load().keys(imageWrapper.getChunkKeys());
+			}
+		});
+
+		byte[] result = new byte[(int) imageWrapper.getLength()];
+		int position = 0;
+		for (Key<ImageChunk> key : imageWrapper.getChunkKeys()) {
+			ImageChunk chunk = chunks.get(key);
+			if (chunk == null) {
+				throw new IOException("missing image chunk " + key.getName());
+			}
+			System.arraycopy(chunk.getData(), 0, result, position, chunk.getData().length);
+			position += chunk.getData().length;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the image together with the ETag and modification time recorded when it was written. Chunked images are
+	 * not read here; their chunks are streamed when the image is written to a client.
+	 */
 	@Override
-	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		Image image = null;
-		boolean result = false;
-		try {
-			image = doReadImage(photoIdAsString, size);
-		} catch (IOException e) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("IOException when checking for Image existance", e)
-							.toString());
-		}
-		if (image != null) {
-			result = true;
+	protected StoredImage doOpenImage(final String photoIdAsString, final int size) throws IOException {
+		ImageWrapper imageWrapper = loadImageWrapper(photoIdAsString + size);
+		if (imageWrapper == null) {
+			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			return null;
+		} else if (imageWrapper.isChunked()) {
+			return new ChunkedStoredImage(imageWrapper);
 		}
+		return new InMemoryStoredImage(imageWrapper.getImage(), imageWrapper.getETag(),
+				imageWrapper.getLastModified());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected ImageWrapper loadImageWrapper(final String id) {
+		return ObjectifyService.run(new Work<ImageWrapper>() {
+			@Override
+			public ImageWrapper run() {
+				return OfyService.ofy().load().type(ImageWrapper.class).id(id).now();
+			}
+		});
+	}
+
+	/**
+	 * Looks the size up in the manifest of the photo, so no image data is transferred.
+	 */
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		boolean result = doGetImageSizes(photoIdAsString).contains(PhotoSize.getFromInt(size));
 		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
 		return result;
 	}
 
 	/**
-	 * Wrapper class to store {@link Image}s in the Google Datastore with Objectify.
+	 * Reads the manifest of the photo, one small entity for all sizes.
+	 */
+	@Override
+	protected Set<PhotoSize> doGetImageSizes(String photoIdAsString) {
+		return readManifest(photoIdAsString).getSizes();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the manifest of the photo. Images written before manifests existed are found with a keys-only query,
+	 * and the manifest is created for them.
+	 */
+	protected ImageManifest readManifest(final String photoIdAsString) {
+		ImageManifest result = ObjectifyService.run(new Work<ImageManifest>() {
+			@Override
+			public ImageManifest run() {
+				return OfyService.ofy().load().type(ImageManifest.class).id(photoIdAsString).now();
+			}
+		});
+
+		if (result == null) {
+			result = new ImageManifest(photoIdAsString);
+			for (PhotoSize photoSize : readExistingSizes(photoIdAsString)) {
+				result.addSize(photoSize);
+			}
+			if (!result.getSizes().isEmpty()) {
+				final ImageManifest manifest = result;
+				ObjectifyService.run(new Work<Void>() {
+					@Override
+					public Void run() {
+						OfyService.ofy().save().entity(manifest).now();
+						return null;
+					}
+				});
+				log.config(LogBuilder.createSystemMessage().
+						addParameter("created image manifest", photoIdAsString).toString());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the size to the manifest of the photo. The manifest is re-read inside the transaction, so a concurrent
+	 * writer of another size either commits first and is seen, or makes this transaction retry.
+	 */
+	protected void addToManifest(final String photoIdAsString, final PhotoSize photoSize) {
+		OfyService.ofy().transact(new VoidWork() {
+			@Override
+			public void vrun() {
+				ImageManifest manifest = OfyService.ofy().load().type(ImageManifest.class).id(photoIdAsString).now();
+				if (manifest == null) {
+					manifest = new ImageManifest(photoIdAsString);
+				}
+				manifest.addSize(photoSize);
+				OfyService.ofy().save().entity(manifest).now();
+			}
+		});
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Looks up the ImageWrapper keys of all sizes of the photo with one keys-only query.
+	 */
+	protected Set<PhotoSize> readExistingSizes(final String photoIdAsString) {
+		final List<Key<ImageWrapper>> keys = new ArrayList<Key<ImageWrapper>>();
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			keys.add(Key.create(ImageWrapper.class, photoIdAsString + photoSize.asInt()));
+		}
+
+		List<Key<ImageWrapper>> existingKeys = ObjectifyService.run(new Work<List<Key<ImageWrapper>>>() {
+			@Override
+			public List<Key<ImageWrapper>> run() {
+				return OfyService.ofy().load().type(ImageWrapper.class).filterKey("in", keys).keys().list();
+			}
+		});
+
+		Set<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		for (Key<ImageWrapper> key : existingKeys) {
+			result.add(PhotoSize.getFromInt(keys.indexOf(key)));
+		}
+		return result;
+	}
+
+	/**
+	 * Wrapper class to store {@link Image}s in the Google Datastore with Objectify. Images smaller than CHUNK_SIZE
+	 * are stored inline; the ImageWrapper of a larger image is the manifest of its ImageChunks.
 	 * 
  	 * @review
 	 */
@@ -123,13 +301,32 @@ public class DatastoreAdapter extends ImageStorage {
 	public static class ImageWrapper {
 
 		// see https://cloud.google.com/datastore/docs/tools/administration
-		public final int maxEntitySize = 1024 * 1024; // = 1 MB
+		public static final int MAX_ENTITY_SIZE = 1024 * 1024; // = 1 MB
+
+		/**
+		 * Leaves room for the key and the other properties of an ImageChunk
+		 */
+		public static final int CHUNK_SIZE = MAX_ENTITY_SIZE - 64 * 1024;
 
 		@Id
 		private String id;
 
 		private byte[] imageData;
 
+		/**
+		 * Null for images written before ETags were recorded
+		 */
+		private String eTag;
+		private long lastModified;
+
+		/**
+		 * Only used for chunked images; the generation makes the chunk keys of each write unique
+		 */
+		private int noChunks = 0;
+		private long length;
+		private long generation;
+		private String contentType;
+
 		public ImageWrapper() {
 			// just for Objectify to load it from Datastore
 		}
@@ -148,15 +345,265 @@ public class DatastoreAdapter extends ImageStorage {
 		/**
 		 * @methodtype set
 		 *
-		 * Can not handle images >= 1 MB because this is the upper limit of entities in Google Datastore.
+		 * Stores the image inline if it fits into one entity. Otherwise it returns the chunks that have to be saved
+		 * together with this ImageWrapper.
 		 */
-		public void setImage(Image image) throws ArrayIndexOutOfBoundsException {
-			if(image.getImageData().length >= maxEntitySize) {
-				throw new ArrayIndexOutOfBoundsException("Can not store images >= 1 MB in the Google Datastore.");
+		public List<ImageChunk> setImage(Image image) {
+			byte[] data = image.getImageData();
+			eTag = StoredImage.computeETag(data);
+			lastModified = System.currentTimeMillis();
+
+			List<ImageChunk> result = new ArrayList<ImageChunk>();
+			if (data.length < CHUNK_SIZE) {
+				imageData = data;
+				return result;
 			}
-			else {
-				imageData = image.getImageData();
+
+			noChunks = (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			length = data.length;
+			generation = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+			contentType = StoredImage.guessContentType(data, data.length);
+			for (int i = 0; i < noChunks; i++) {
+				int from = i * CHUNK_SIZE;
+				byte[] chunkData = Arrays.copyOfRange(data, from, Math.min(data.length, from + CHUNK_SIZE));
+				result.add(new ImageChunk(getChunkId(i), chunkData));
 			}
+			return result;
+		}
+
+		/**
+		 * @methodtype boolean query
+		 */
+		public boolean isChunked() {
+			return noChunks > 0;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public int getNoChunks() {
+			return noChunks;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getLength() {
+			return isChunked() ? length : imageData.length;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public String getContentType() {
+			return contentType;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public String getChunkId(int index) {
+			return id + "/" + generation + "/" + index;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public Key<ImageChunk> getChunkKey(int index) {
+			return Key.create(ImageChunk.class, getChunkId(index));
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public List<Key<ImageChunk>> getChunkKeys() {
+			List<Key<ImageChunk>> result = new ArrayList<Key<ImageChunk>>(noChunks);
+			for (int i = 0; i < noChunks; i++) {
+				result.add(getChunkKey(i));
+			}
+			return result;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+
+	/**
+	 * One part of an image that does not fit into a single entity.
+	 */
+	@Entity
+	public static class ImageChunk {
+
+		@Id
+		private String id;
+
+		private byte[] data;
+
+		public ImageChunk() {
+			// just for Objectify to load it from Datastore
+		}
+
+		public ImageChunk(String id, byte[] data) {
+			this.id = id;
+			this.data = data;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	/**
+	 * A chunked image that is written to the client chunk by chunk. The next chunk is loaded asynchronously while the
+	 * current one is written, and only the chunks that overlap the requested range are loaded.
+	 */
+	public static class ChunkedStoredImage extends StoredImage {
+
+		/**
+		 *
+		 */
+		protected final ImageWrapper imageWrapper;
+
+		/**
+		 * @methodtype constructor
+		 */
+		public ChunkedStoredImage(ImageWrapper imageWrapper) {
+			this.imageWrapper = imageWrapper;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getLength() {
+			return imageWrapper.getLength();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public String getContentType() {
+			return imageWrapper.getContentType();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public String getETag() {
+			return imageWrapper.getETag();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		@Override
+		public long getLastModified() {
+			return imageWrapper.getLastModified();
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		public void writeTo(final OutputStream out, final long offset, final long length) throws IOException {
+			assertIsValidRange(offset, length);
+			if (length == 0) {
+				return;
+			}
+
+			try {
+				ObjectifyService.run(new VoidWork() {
+					@Override
+					public void vrun() {
+						try {
+							doWriteTo(out, offset, length);
+						} catch (IOException ex) {
+							throw new UncheckedIOException(ex);
+						}
+					}
+				});
+			} catch (UncheckedIOException ex) {
+				throw ex.getCause();
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void doWriteTo(OutputStream out, long offset, long length) throws IOException {
+			int firstIndex = (int) (offset / ImageWrapper.CHUNK_SIZE);
+			int lastIndex = (int) ((offset + length - 1) / ImageWrapper.CHUNK_SIZE);
+
+			LoadResult<ImageChunk> next = OfyService.ofy().load().key(imageWrapper.getChunkKey(firstIndex));
+			for (int i = firstIndex; i <= lastIndex; i++) {
+				ImageChunk chunk = next.now();
+				// the session cache would otherwise keep all chunks on the heap until the end of the request
+				OfyService.ofy().clear();
+				next = i < lastIndex ? OfyService.ofy().load().key(imageWrapper.getChunkKey(i + 1)) : null;
+				if (chunk == null) {
+					throw new IOException("missing image chunk " + imageWrapper.getChunkId(i));
+				}
+
+				long chunkStart = (long) i * ImageWrapper.CHUNK_SIZE;
+				int from = (int) Math.max(0, offset - chunkStart);
+				int to = (int) Math.min(chunk.getData().length, offset + length - chunkStart);
+				out.write(chunk.getData(), from, to - from);
+			}
+		}
+	}
+
+	/**
+	 * Records which sizes of a photo are stored, so that existence checks do not have to load ImageWrappers.
+	 */
+	@Entity
+	public static class ImageManifest {
+
+		@Id
+		private String id;
+
+		/**
+		 * One bit per PhotoSize, indexed by PhotoSize.asInt()
+		 */
+		private int sizes = 0;
+
+		public ImageManifest() {
+			// just for Objectify to load it from Datastore
+		}
+
+		public ImageManifest(String photoIdAsString) {
+			this.id = photoIdAsString;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public Set<PhotoSize> getSizes() {
+			Set<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+			for (PhotoSize photoSize : PhotoSize.values()) {
+				if ((sizes & (1 << photoSize.asInt())) != 0) {
+					result.add(photoSize);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * @methodtype set
+		 */
+		public void addSize(PhotoSize photoSize) {
+			sizes |= 1 << photoSize.asInt();
 		}
 	}
 }
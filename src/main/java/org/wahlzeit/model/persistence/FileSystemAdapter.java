@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.utils.PatternInstance;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Adapter for the local file system. Images are stored as rootDir/shard/photoId/size.img, where the shard is derived
+ * from the hash of the photo id, so that no directory grows too large. Writes go to a temporary file that is renamed
+ * atomically, so readers never see a partial image. There is no size limit per image. The ETag of each image is kept
+ * in a size.etag file next to it, which is written after the image and records the length and modification time of
+ * the image it belongs to. An ETag file that does not match its image, e.g. after a crash between the two writes, is
+ * ignored.
+ */
+@PatternInstance(
+		name = "Adapter",
+		participants = {"Adaptor"}
+)
+public class FileSystemAdapter extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(FileSystemAdapter.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String IMAGE_FILE_EXTENSION = ".img";
+	public static final String TEMP_FILE_EXTENSION = ".tmp";
+	public static final String ETAG_FILE_EXTENSION = ".etag";
+	public static final int NO_SHARDS = 256;
+
+	/**
+	 *
+	 */
+	protected final Path rootDir;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public FileSystemAdapter() {
+		this(Paths.get(SysConfig.getPhotosDir().asString()));
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public FileSystemAdapter(Path rootDir) {
+		this.rootDir = rootDir;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Path getRootDir() {
+		return rootDir;
+	}
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (image instanceof Image) {
+			Path photoDir = getPhotoDir(photoIdAsString);
+			Files.createDirectories(photoDir);
+
+			byte[] imageData = ((Image) image).getImageData();
+			Path imageFile = getImageFile(photoIdAsString, size);
+			writeFileAtomically(photoDir, imageFile, imageData);
+
+			long lastModified = Files.getLastModifiedTime(imageFile).toMillis();
+			String eTagRecord = StoredImage.computeETag(imageData) + " " + imageData.length + " " + lastModified;
+			writeFileAtomically(photoDir, getETagFile(photoIdAsString, size), eTagRecord.getBytes(StandardCharsets.US_ASCII));
+
+			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+		} else {
+			log.warning(LogBuilder.createSystemMessage().
+					addMessage("did not get an Image type to store").
+					addParameter("image type", image.toString()).toString());
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void writeFileAtomically(Path dir, Path file, byte[] data) throws IOException {
+		Path tempFile = Files.createTempFile(dir, file.getFileName().toString(), TEMP_FILE_EXTENSION);
+		try {
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.wrap(data);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(false);
+			}
+			moveAtomically(tempFile, file);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void moveAtomically(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		Image result = null;
+		try (FileChannel channel = FileChannel.open(getImageFile(photoIdAsString, size), StandardOpenOption.READ)) {
+			result = ImagesServiceFactory.makeImage(readFully(channel));
+			log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+		} catch (NoSuchFileException ex) {
+			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a handle that transfers the file to the client without reading it onto the heap.
+	 */
+	@Override
+	protected StoredImage doOpenImage(String photoIdAsString, int size) throws IOException {
+		Path file = getImageFile(photoIdAsString, size);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(StoredImage.CONTENT_TYPE_HEADER_LENGTH);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// keep reading
+			}
+			String contentType = StoredImage.guessContentType(header.array(), header.position());
+			long lastModified = Files.getLastModifiedTime(file).toMillis();
+			String eTag = readETag(photoIdAsString, size, channel.size(), lastModified);
+			return new FileStoredImage(file, channel.size(), contentType, eTag, lastModified);
+		} catch (NoSuchFileException ex) {
+			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Reads the ETag file of the image. Images without a matching one get an ETag derived from their length and
+	 * modification time.
+	 */
+	protected String readETag(String photoIdAsString, int size, long length, long lastModified) throws IOException {
+		try {
+			byte[] eTagRecord = Files.readAllBytes(getETagFile(photoIdAsString, size));
+			String[] fields = new String(eTagRecord, StandardCharsets.US_ASCII).trim().split(" ");
+			if (fields.length == 3 && fields[1].equals(String.valueOf(length)) &&
+					fields[2].equals(String.valueOf(lastModified))) {
+				return fields[0];
+			}
+		} catch (NoSuchFileException ex) {
+			// image written without ETag file
+		}
+		return Long.toHexString(length) + "-" + Long.toHexString(lastModified);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected byte[] readFully(FileChannel channel) throws IOException {
+		long fileSize = channel.size();
+		if (fileSize > Integer.MAX_VALUE) {
+			throw new IOException("image file too large: " + fileSize);
+		}
+
+		byte[] result = new byte[(int) fileSize];
+		ByteBuffer buffer = ByteBuffer.wrap(result);
+		while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			// keep reading
+		}
+		return result;
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		boolean result = Files.isRegularFile(getImageFile(photoIdAsString, size));
+		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+		return result;
+	}
+
+	/**
+	 * Lists the photo directory once for all sizes.
+	 */
+	@Override
+	protected Set<PhotoSize> doGetImageSizes(String photoIdAsString) {
+		Set<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		Path photoDir = getPhotoDir(photoIdAsString);
+		if (!Files.isDirectory(photoDir)) {
+			return result;
+		}
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(photoDir, "*" + IMAGE_FILE_EXTENSION)) {
+			for (Path file : files) {
+				String fileName = file.getFileName().toString();
+				String size = fileName.substring(0, fileName.length() - IMAGE_FILE_EXTENSION.length());
+				try {
+					result.add(PhotoSize.getFromInt(Integer.parseInt(size)));
+				} catch (IllegalArgumentException ex) {
+					log.warning(LogBuilder.createSystemMessage().addParameter("unexpected image file", file).toString());
+				}
+			}
+		} catch (IOException ex) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("IOException when listing image sizes", ex).toString());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Path getImageFile(String photoIdAsString, int size) {
+		return getPhotoDir(photoIdAsString).resolve(size + IMAGE_FILE_EXTENSION);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Path getETagFile(String photoIdAsString, int size) {
+		return getPhotoDir(photoIdAsString).resolve(size + ETAG_FILE_EXTENSION);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Path getPhotoDir(String photoIdAsString) {
+		assertIsValidFileName(photoIdAsString);
+		return rootDir.resolve(getShard(photoIdAsString)).resolve(photoIdAsString);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected String getShard(String photoIdAsString) {
+		int hash = photoIdAsString.hashCode();
+		hash ^= hash >>> 16;
+		return String.format("%02x", (hash & 0x7fffffff) % NO_SHARDS);
+	}
+
+	/**
+	 * @methodtype assert
+	 */
+	protected void assertIsValidFileName(String photoIdAsString) throws IllegalArgumentException {
+		if (photoIdAsString.indexOf('/') >= 0 || photoIdAsString.indexOf('\\') >= 0 ||
+				photoIdAsString.startsWith(".")) {
+			throw new IllegalArgumentException("Invalid photoId for file system: " + photoIdAsString);
+		}
+	}
+
+	/**
+	 * An image file that is copied to the client with FileChannel.transferTo, in chunks of constant size.
+	 */
+	public static class FileStoredImage extends StoredImage {
+
+		/**
+		 *
+		 */
+		protected final Path file;
+		protected final long length;
+		protected final String contentType;
+		protected final String eTag;
+		protected final long lastModified;
+
+		/**
+		 * @methodtype constructor
+		 */
+		public FileStoredImage(Path file, long length, String contentType, String eTag, long lastModified) {
+			this.file = file;
+			this.length = length;
+			this.contentType = contentType;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public String getContentType() {
+			return contentType;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		@Override
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		public void writeTo(OutputStream out, long offset, long length) throws IOException {
+			assertIsValidRange(offset, length);
+			WritableByteChannel target = Channels.newChannel(out);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				long position = offset;
+				long end = offset + length;
+				while (position < end) {
+					long transferred = channel.transferTo(position, end - position, target);
+					if (transferred <= 0) {
+						throw new IOException("image file shrank while writing: " + file);
+					}
+					position += transferred;
+				}
+			}
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.PatternInstance;
@@ -7,6 +8,8 @@ import org.wahlzeit.utils.PatternInstance;
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -41,7 +44,7 @@ public abstract class ImageStorage {
 	public static void setInstance(ImageStorage newInstance) {
 		log.config(LogBuilder.createSystemMessage().
 				addAction("set ImageStorage instance").
-				addParameter("instance", newInstance).toString());
+				addParameter("instance", String.valueOf(newInstance)).toString());
 		instance = newInstance;
 	}
 
@@ -112,6 +115,40 @@ public abstract class ImageStorage {
 	protected abstract Serializable doReadImage(String filename, int size)
 			throws IOException;
 
+	/**
+	 * Opens an image for streaming it to a client. When the image is not found, null is returned.
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public StoredImage openImage(String photoIdAsString, int size)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("open image in storage").
+				addParameter("photo id", photoIdAsString).
+				addParameter("size", size).toString());
+
+		return doOpenImage(photoIdAsString, size);
+	}
+
+	/**
+	 * Actually opens the image. Reads the whole image by default; subclasses that can copy from their backing store
+	 * directly override it.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected StoredImage doOpenImage(String photoIdAsString, int size)
+			throws IOException {
+
+		Serializable image = doReadImage(photoIdAsString, size);
+		return image instanceof Image ? new InMemoryStoredImage((Image) image) : null;
+	}
+
 
 	// exist method ----------------------------------------------------------------------------------------------------
 
@@ -144,6 +181,40 @@ public abstract class ImageStorage {
 	 */
 	protected abstract boolean doDoesImageExist(String photoIdAsString, int size);
 
+	/**
+	 * Returns the sizes of the photo that exist in the storage, without reading any image data
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public Set<PhotoSize> getImageSizes(String photoIdAsString)
+			throws IllegalArgumentException {
+
+		assertValidPhotoId(photoIdAsString);
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("get existing image sizes from storage").
+				addParameter("photo id", photoIdAsString).toString());
+
+		return doGetImageSizes(photoIdAsString);
+	}
+
+	/**
+	 * Actually looks up the existing sizes. Checks each size by default; subclasses with a cheaper lookup override it.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected Set<PhotoSize> doGetImageSizes(String photoIdAsString) {
+		Set<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			if (doDoesImageExist(photoIdAsString, photoSize.asInt())) {
+				result.add(photoSize);
+			}
+		}
+		return result;
+	}
+
 
 	// assertion methods -----------------------------------------------------------------------------------------------
 
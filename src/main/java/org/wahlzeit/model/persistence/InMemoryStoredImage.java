@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A stored image whose data is already on the heap, e.g. because it was read from the Datastore or is held by the
+ * ImageCache. Writing it does not copy the data again. If the storage did not record an ETag, it is computed from the
+ * data on first use.
+ */
+public class InMemoryStoredImage extends StoredImage {
+
+	/**
+	 *
+	 */
+	protected final Image image;
+	protected final byte[] data;
+	protected final String contentType;
+	protected final long lastModified;
+	protected volatile String eTag;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public InMemoryStoredImage(Image image) {
+		this(image, null, 0);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public InMemoryStoredImage(Image image, String eTag, long lastModified) {
+		if (image == null) {
+			throw new IllegalArgumentException("image must not be null");
+		}
+		this.image = image;
+		this.data = image.getImageData();
+		this.contentType = guessContentType(data, data.length);
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Image getImage() {
+		return image;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLength() {
+		return data.length;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getETag() {
+		String result = eTag;
+		if (result == null) {
+			result = computeETag(data);
+			eTag = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void writeTo(OutputStream out, long offset, long length) throws IOException {
+		assertIsValidRange(offset, length);
+		out.write(data, (int) offset, (int) length);
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A stored image is a handle to one rendition in an ImageStorage that can be copied to an output stream without
+ * first reading the whole image onto the heap. Implementations copy straight from their backing store.
+ */
+public abstract class StoredImage {
+
+	/**
+	 *
+	 */
+	public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+	/**
+	 * Number of leading bytes needed by guessContentType
+	 */
+	public static final int CONTENT_TYPE_HEADER_LENGTH = 12;
+
+	/**
+	 * ETags are the first ETAG_LENGTH bytes of the SHA-256 of the image data, in hex
+	 */
+	public static final String ETAG_DIGEST_ALGORITHM = "SHA-256";
+	public static final int ETAG_LENGTH = 16;
+
+	/**
+	 * @methodtype get
+	 */
+	public abstract long getLength();
+
+	/**
+	 * @methodtype get
+	 */
+	public abstract String getContentType();
+
+	/**
+	 * Returns a hash of the image data, for use as HTTP entity tag (without quotes)
+	 *
+	 * @methodtype get
+	 */
+	public abstract String getETag();
+
+	/**
+	 * Returns when the image was written in milliseconds since the epoch, or 0 if that is unknown
+	 *
+	 * @methodtype get
+	 */
+	public long getLastModified() {
+		return 0;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Copies length bytes starting at offset to the output stream.
+	 */
+	public abstract void writeTo(OutputStream out, long offset, long length) throws IOException;
+
+	/**
+	 * @methodtype command
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		writeTo(out, 0, getLength());
+	}
+
+	/**
+	 * @methodtype assert
+	 */
+	protected void assertIsValidRange(long offset, long length) throws IllegalArgumentException {
+		if (offset < 0 || length < 0 || offset + length > getLength()) {
+			throw new IllegalArgumentException("invalid range: " + offset + "+" + length + " of " + getLength());
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static MessageDigest createETagDigest() {
+		try {
+			return MessageDigest.getInstance(ETAG_DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("JRE does not provide " + ETAG_DIGEST_ALGORITHM, ex);
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String asETag(MessageDigest digest) {
+		byte[] hash = digest.digest();
+		StringBuilder result = new StringBuilder(2 * ETAG_LENGTH);
+		for (int i = 0; i < ETAG_LENGTH; i++) {
+			result.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+			result.append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	public static String computeETag(byte[] data) {
+		MessageDigest digest = createETagDigest();
+		digest.update(data);
+		return asETag(digest);
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Determines the content type from the magic number at the start of the image data.
+	 */
+	public static String guessContentType(byte[] header, int length) {
+		if (startsWith(header, length, 0xFF, 0xD8, 0xFF)) {
+			return "image/jpeg";
+		} else if (startsWith(header, length, 0x89, 'P', 'N', 'G')) {
+			return "image/png";
+		} else if (startsWith(header, length, 'G', 'I', 'F', '8')) {
+			return "image/gif";
+		} else if (startsWith(header, length, 'B', 'M')) {
+			return "image/bmp";
+		} else if (startsWith(header, length, 'R', 'I', 'F', 'F') && length >= 12 &&
+				header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+			return "image/webp";
+		}
+		return DEFAULT_CONTENT_TYPE;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static boolean startsWith(byte[] header, int length, int... magic) {
+		if (length < magic.length) {
+			return false;
+		}
+		for (int i = 0; i < magic.length; i++) {
+			if ((header[i] & 0xFF) != magic[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -56,6 +56,25 @@ public abstract class AbstractConfig implements Configuration, Serializable {
 		return doGetValue(key);
 	}
 
+	/**
+	 * @methodtype conversion
+	 */
+	public long getLongValue(String key) throws IllegalArgumentException {
+		String value = getValue(key);
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("value of " + key + " is not a number: " + value, ex);
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public boolean getBooleanValue(String key) throws IllegalArgumentException {
+		return Boolean.parseBoolean(getValue(key).trim());
+	}
+
 	/**
 	 *
 	 */
@@ -24,6 +24,7 @@ import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import org.wahlzeit.model.exceptions.FailedToCreateInstanceException;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.logging.Logger;
@@ -41,6 +42,16 @@ public abstract class ObjectManager {
 
 	private static final Logger log = Logger.getLogger(ObjectManager.class.getName());
 
+	/**
+	 * The Datastore accepts at most 500 entities per batch write
+	 */
+	public static final int MAX_WRITE_BATCH_SIZE = 500;
+
+	/**
+	 *
+	 */
+	protected int writeBatchSize = MAX_WRITE_BATCH_SIZE;
+
 
 	/**
 	 * Reads the first Entity with the given key in the Datastore
@@ -147,12 +158,47 @@ public abstract class ObjectManager {
 	}
 
 	/**
-	 * Updates all entities of the given collection in the datastore.
+	 * Updates all dirty entities of the given collection in the datastore. They are written in batches of
+	 * writeBatchSize entities with one Datastore call each, instead of one call per entity.
 	 */
 	protected void updateObjects(Collection<? extends Persistent> collection) {
+		assertIsNonNullArgument(collection, "collection");
+		List<Persistent> batch = new ArrayList<Persistent>(Math.min(writeBatchSize, collection.size()));
 		for (Persistent object : collection) {
-			updateObject(object);
+			if (object.isDirty()) {
+				batch.add(object);
+				if (batch.size() >= writeBatchSize) {
+					writeObjectBatch(batch);
+					batch.clear();
+				}
+			}
+		}
+		writeObjectBatch(batch);
+	}
+
+	/**
+	 * Writes the given entities with a single Datastore call, then updates their dependents and marks them clean.
+	 */
+	protected void writeObjectBatch(List<? extends Persistent> batch) {
+		if (batch.isEmpty()) {
+			return;
 		}
+
+		log.info(LogBuilder.createSystemMessage().
+				addParameter("Datastore: write batch of objects", batch.size()).toString());
+		OfyService.ofy().save().entities(batch).now();
+		for (Persistent object : batch) {
+			updateDependents(object);
+			object.resetWriteCount();
+		}
+	}
+
+	/**
+	 * Schedules the given entity to be updated in the datastore by the WriteBehindQueue.
+	 */
+	protected void updateObjectLater(Persistent object) {
+		assertIsNonNullArgument(object, "object");
+		WriteBehindQueue.getInstance().enqueue(this, object);
 	}
 
 	/**
@@ -180,6 +226,20 @@ public abstract class ObjectManager {
 		}
 	}
 
+	/**
+	 * Writes all given entities to the datastore in one batch, regardless of whether they are dirty.
+	 */
+	protected <E> void writeObjects(Collection<E> objects) {
+		assertIsNonNullArgument(objects, "objects");
+		if (objects.isEmpty()) {
+			return;
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("Datastore: write entities", objects.size()).toString());
+		OfyService.ofy().save().entities(objects).now();
+	}
+
 	/**
 	 * Updates all dependencies of the object.
 	 */
@@ -197,6 +257,20 @@ public abstract class ObjectManager {
 		OfyService.ofy().delete().entity(object).now();
 	}
 
+	/**
+	 * Deletes all given entities from the datastore in one batch.
+	 */
+	protected <E> void deleteObjects(Collection<E> objects) {
+		assertIsNonNullArgument(objects, "objects");
+		if (objects.isEmpty()) {
+			return;
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("Datastore: delete entities", objects.size()).toString());
+		OfyService.ofy().delete().entities(objects).now();
+	}
+
 	/**
 	 * Deletes all entities of the type that have a property with the specified value, e.g.
 	 * deleteObjects(PhotoCase.class, "wasDecided", true) to delete all cases that have been decided.
@@ -12,6 +12,8 @@ import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCase;
 import org.wahlzeit.model.Tag;
 import org.wahlzeit.model.User;
+import org.wahlzeit.model.persistence.DatastoreAdapter.ImageChunk;
+import org.wahlzeit.model.persistence.DatastoreAdapter.ImageManifest;
 import org.wahlzeit.model.persistence.DatastoreAdapter.ImageWrapper;
 
 /**
@@ -35,6 +37,8 @@ public class OfyService {
 		factory().register(Guest.class);
 		factory().register(PhotoCase.class);
 		factory().register(ImageWrapper.class);
+		factory().register(ImageChunk.class);
+		factory().register(ImageManifest.class);
 	}
 
 	public static Objectify ofy() {
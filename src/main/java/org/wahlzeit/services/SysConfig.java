@@ -30,6 +30,35 @@ public class SysConfig extends AbstractConfig {
 
 	public static String DATA_PATH = "org-wahlzeit-dirkriehle";
 	
+	/**
+	 * Prefix of Java system properties that override the default values below, e.g. -Dwahlzeit.photoCacheSize=500
+	 */
+	public static final String PROPERTY_PREFIX = "wahlzeit.";
+
+	/**
+	 * Keys of tunable values
+	 */
+	public static final String PHOTO_CACHE_SIZE = "photoCacheSize";
+	public static final String PHOTO_CACHE_POLICY = "photoCachePolicy";
+	public static final String THUMBNAIL_CACHE_SIZE = "thumbnailCacheSize";
+	public static final String IMAGE_CACHE_SIZE = "imageCacheSize";
+	public static final String LAZY_IMAGE_LOADING = "lazyImageLoading";
+	public static final String WRITE_BEHIND_BATCH_SIZE = "writeBehindBatchSize";
+	public static final String WRITE_BEHIND_MAX_LAG = "writeBehindMaxLag";
+	public static final String WRITE_BEHIND_CAPACITY = "writeBehindCapacity";
+	public static final String WRITE_BEHIND_MAX_ATTEMPTS = "writeBehindMaxAttempts";
+	public static final String IMAGE_STORAGE = "imageStorage";
+	public static final String IMAGE_SCALER = "imageScaler";
+	public static final String IMAGE_SCALER_THREADS = "imageScalerThreads";
+	public static final String JPEG_QUALITY = "jpegQuality";
+	public static final String EAGER_PHOTO_SIZES = "eagerPhotoSizes";
+	public static final String MAX_UPLOAD_SIZE = "maxUploadSize";
+	public static final String WATCH_TEMPLATES = "watchTemplates";
+	public static final String PAGE_CACHE = "pageCache";
+	public static final String PAGE_CACHE_TTL = "pageCacheTtl";
+	public static final String PAGE_CACHE_SIZE = "pageCacheSize";
+	public static final String COMPRESS_RESPONSES = "compressResponses";
+
 	/**
 	 *
 	 */
@@ -78,6 +107,44 @@ public class SysConfig extends AbstractConfig {
 		photosDir = new Directory(rootDir, DATA_PATH + File.separator + "photos");
 		backupDir = new Directory(rootDir, DATA_PATH + File.separator + "backup");
 		tempDir = new Directory(rootDir, DATA_PATH + File.separator + "temp");
+
+		// Tunable values
+		initDefaultValues();
+	}
+
+	/**
+	 * @methodtype initialization
+	 */
+	protected void initDefaultValues() {
+		setDefaultValue(PHOTO_CACHE_SIZE, "10000");
+		setDefaultValue(PHOTO_CACHE_POLICY, "tinylfu");
+		setDefaultValue(THUMBNAIL_CACHE_SIZE, String.valueOf(32 * 1024 * 1024));
+		setDefaultValue(IMAGE_CACHE_SIZE, String.valueOf(128 * 1024 * 1024));
+		setDefaultValue(LAZY_IMAGE_LOADING, "true");
+		setDefaultValue(WRITE_BEHIND_BATCH_SIZE, String.valueOf(WriteBehindQueue.DEFAULT_MAX_BATCH_SIZE));
+		setDefaultValue(WRITE_BEHIND_MAX_LAG, String.valueOf(WriteBehindQueue.DEFAULT_MAX_LAG));
+		setDefaultValue(WRITE_BEHIND_CAPACITY, String.valueOf(WriteBehindQueue.DEFAULT_CAPACITY));
+		setDefaultValue(WRITE_BEHIND_MAX_ATTEMPTS, String.valueOf(WriteBehindQueue.DEFAULT_MAX_ATTEMPTS));
+		setDefaultValue(IMAGE_STORAGE, "datastore");
+		setDefaultValue(IMAGE_SCALER, "imagesservice");
+		setDefaultValue(IMAGE_SCALER_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors()));
+		setDefaultValue(JPEG_QUALITY, "0.85");
+		setDefaultValue(EAGER_PHOTO_SIZES, "thumb, medium");
+		setDefaultValue(MAX_UPLOAD_SIZE, String.valueOf(32 * 1024 * 1024));
+		setDefaultValue(WATCH_TEMPLATES, "false");
+		setDefaultValue(PAGE_CACHE, "false");
+		setDefaultValue(PAGE_CACHE_TTL, String.valueOf(60 * 1000));
+		setDefaultValue(PAGE_CACHE_SIZE, String.valueOf(16 * 1024 * 1024));
+		setDefaultValue(COMPRESS_RESPONSES, "true");
+	}
+
+	/**
+	 * Sets the value of key, unless a system property overrides it.
+	 *
+	 * @methodtype set
+	 */
+	protected void setDefaultValue(String key, String defaultValue) {
+		doSetValue(key, System.getProperty(PROPERTY_PREFIX + key, defaultValue));
 	}
 
 	/**
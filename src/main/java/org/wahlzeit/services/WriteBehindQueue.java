@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * The WriteBehindQueue collects dirty objects together with the ObjectManager that persists them. An object that is
+ * enqueued several times before the next flush is written only once. The queue is flushed in batches when it holds
+ * maxBatchSize objects, when its oldest object has waited longer than maxLag milliseconds, or when the flush agent
+ * runs. Each instance holds its own queue, and the servlets check for a due flush at the end of every request, so the
+ * lag stays bounded on instances the flush agent does not reach. If more than capacity objects are pending, enqueue
+ * flushes in the calling thread, which slows down writers instead of letting the queue grow without bound. An object
+ * whose batch failed maxAttempts times in a row is logged and dropped, so that it cannot keep the queue full.
+ */
+public class WriteBehindQueue {
+
+	private static final Logger log = Logger.getLogger(WriteBehindQueue.class.getName());
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+	public static final long DEFAULT_MAX_LAG = 5000;
+	public static final int DEFAULT_CAPACITY = 2000;
+	public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+	/**
+	 *
+	 */
+	protected static final WriteBehindQueue instance = new WriteBehindQueue();
+
+	/**
+	 * @methodtype get
+	 */
+	public static WriteBehindQueue getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Pending objects per ObjectManager, in identity sets to coalesce repeated writes of the same object
+	 */
+	protected Map<ObjectManager, Set<Persistent>> pending = new LinkedHashMap<ObjectManager, Set<Persistent>>();
+	protected int size = 0;
+	protected long oldestEnqueueTime = 0;
+
+	/**
+	 * Only one thread flushes at a time, so that writes of the same object are not reordered
+	 */
+	protected final ReentrantLock flushLock = new ReentrantLock();
+
+	/**
+	 * Number of failed writes per pending object, removed once the object has been written or dropped
+	 */
+	protected Map<Persistent, Integer> failureCounts = new IdentityHashMap<Persistent, Integer>();
+
+	/**
+	 *
+	 */
+	protected int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	protected long maxLag = DEFAULT_MAX_LAG;
+	protected int capacity = DEFAULT_CAPACITY;
+	protected int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	/**
+	 *
+	 */
+	protected long noEnqueues = 0;
+	protected long noFlushedObjects = 0;
+	protected long noDroppedObjects = 0;
+
+	/**
+	 * @methodtype constructor
+	 */
+	protected WriteBehindQueue() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype initialization
+	 */
+	public void configure() {
+		SysConfig sysConfig = SysConfig.getInstance();
+		setLimits((int) sysConfig.getLongValue(SysConfig.WRITE_BEHIND_BATCH_SIZE),
+				sysConfig.getLongValue(SysConfig.WRITE_BEHIND_MAX_LAG),
+				(int) sysConfig.getLongValue(SysConfig.WRITE_BEHIND_CAPACITY));
+		setMaxAttempts((int) sysConfig.getLongValue(SysConfig.WRITE_BEHIND_MAX_ATTEMPTS));
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("write-behind batch size", maxBatchSize).
+				addParameter("write-behind max lag", maxLag).
+				addParameter("write-behind capacity", capacity).
+				addParameter("write-behind max attempts", maxAttempts).toString());
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public synchronized void setLimits(int newMaxBatchSize, long newMaxLag, int newCapacity) {
+		if (newMaxBatchSize < 1 || newMaxLag < 0 || newCapacity < newMaxBatchSize) {
+			throw new IllegalArgumentException("invalid write-behind limits");
+		}
+		maxBatchSize = newMaxBatchSize;
+		maxLag = newMaxLag;
+		capacity = newCapacity;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public synchronized void setMaxAttempts(int newMaxAttempts) {
+		if (newMaxAttempts < 1) {
+			throw new IllegalArgumentException("invalid write-behind max attempts");
+		}
+		maxAttempts = newMaxAttempts;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Schedules the object to be written by the manager. Flushes if a batch is full or the lag bound is exceeded.
+	 */
+	public void enqueue(ObjectManager manager, Persistent object) {
+		if (manager == null || object == null) {
+			throw new IllegalArgumentException("manager and object must not be null");
+		}
+
+		boolean isFlushDue;
+		boolean isOverCapacity;
+		synchronized (this) {
+			Set<Persistent> objects = pending.get(manager);
+			if (objects == null) {
+				objects = Collections.newSetFromMap(new IdentityHashMap<Persistent, Boolean>());
+				pending.put(manager, objects);
+			}
+			if (objects.add(object)) {
+				if (size++ == 0) {
+					oldestEnqueueTime = System.currentTimeMillis();
+				}
+			}
+			noEnqueues++;
+			isFlushDue = doIsFlushDue();
+			isOverCapacity = size >= capacity;
+		}
+
+		if (isOverCapacity) {
+			flushQuietly();
+		} else if (isFlushDue) {
+			flushIfIdle();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Flushes if a batch is full or the lag bound is exceeded. Failures are logged, not thrown, as the objects stay
+	 * pending for the next flush.
+	 */
+	public void flushIfDue() {
+		if (isFlushDue()) {
+			flushIfIdle();
+		}
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public synchronized boolean isFlushDue() {
+		return doIsFlushDue();
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	protected boolean doIsFlushDue() {
+		return size >= maxBatchSize || (size > 0 && System.currentTimeMillis() - oldestEnqueueTime >= maxLag);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Flushes unless another thread is already flushing; that thread or the next writer picks up the pending objects.
+	 * A failed flush has been logged and its objects are enqueued again, so the caller does not see the failure.
+	 */
+	protected void flushIfIdle() {
+		if (flushLock.tryLock()) {
+			try {
+				doFlush();
+			} finally {
+				flushLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Waits for a running flush and then flushes. Like flushIfIdle, a failure is logged and its objects are enqueued
+	 * again, so a writer that hits the capacity bound does not see the failure.
+	 */
+	protected void flushQuietly() {
+		flushLock.lock();
+		try {
+			doFlush();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes all pending objects in batches. If a batch fails, the remaining batches are still written, the objects of
+	 * the failed batch are enqueued again or dropped, and the first failure is thrown.
+	 */
+	public void flush() {
+		RuntimeException failure;
+		flushLock.lock();
+		try {
+			failure = doFlush();
+		} finally {
+			flushLock.unlock();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Returns the failure of the first batch that could not be written, or null if all have been written.
+	 */
+	protected RuntimeException doFlush() {
+		RuntimeException result = null;
+		List<ObjectManager> managers = new ArrayList<ObjectManager>();
+		List<List<Persistent>> chunks = new ArrayList<List<Persistent>>();
+		for (Map.Entry<ObjectManager, Set<Persistent>> entry : takePending().entrySet()) {
+			List<Persistent> objects = new ArrayList<Persistent>(entry.getValue());
+			for (int i = 0; i < objects.size(); i += maxBatchSize) {
+				managers.add(entry.getKey());
+				chunks.add(objects.subList(i, Math.min(objects.size(), i + maxBatchSize)));
+			}
+		}
+
+		for (int i = 0; i < chunks.size(); i++) {
+			try {
+				managers.get(i).updateObjects(chunks.get(i));
+				markAsFlushed(chunks.get(i));
+			} catch (RuntimeException ex) {
+				log.warning(LogBuilder.createSystemMessage().
+						addException("Problem when flushing write-behind queue", ex).toString());
+				for (Persistent object : chunks.get(i)) {
+					requeueOrDrop(managers.get(i), object);
+				}
+				if (result == null) {
+					result = ex;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected synchronized void markAsFlushed(List<Persistent> objects) {
+		noFlushedObjects += objects.size();
+		for (Persistent object : objects) {
+			failureCounts.remove(object);
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Enqueues the object of a failed batch again, unless it has failed maxAttempts times.
+	 */
+	protected synchronized void requeueOrDrop(ObjectManager manager, Persistent object) {
+		Integer noFailures = failureCounts.get(object);
+		int newNoFailures = (noFailures == null) ? 1 : noFailures + 1;
+		if (newNoFailures < maxAttempts) {
+			failureCounts.put(object, newNoFailures);
+			requeue(manager, object);
+		} else {
+			failureCounts.remove(object);
+			noDroppedObjects++;
+			log.warning(LogBuilder.createSystemMessage().
+					addAction("drop object from write-behind queue").
+					addParameter("object", object).
+					addParameter("failed attempts", newNoFailures).toString());
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected synchronized void requeue(ObjectManager manager, Persistent object) {
+		Set<Persistent> objects = pending.get(manager);
+		if (objects == null) {
+			objects = Collections.newSetFromMap(new IdentityHashMap<Persistent, Boolean>());
+			pending.put(manager, objects);
+		}
+		if (objects.add(object) && size++ == 0) {
+			oldestEnqueueTime = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected synchronized Map<ObjectManager, Set<Persistent>> takePending() {
+		Map<ObjectManager, Set<Persistent>> result = pending;
+		pending = new LinkedHashMap<ObjectManager, Set<Persistent>>();
+		size = 0;
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoEnqueues() {
+		return noEnqueues;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoFlushedObjects() {
+		return noFlushedObjects;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoDroppedObjects() {
+		return noDroppedObjects;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Drops all pending objects without writing them.
+	 */
+	public synchronized void clear() {
+		pending.clear();
+		failureCounts.clear();
+		size = 0;
+	}
+
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A thread-safe in-memory cache with an upper bound on the total weight of its entries. When the bound is exceeded,
+ * the eviction policy chooses which entries to drop. Eviction listeners are called outside of the lock; until the
+ * listener has returned, an evicted value can still be found with getPendingEviction.
+ */
+public class BoundedCache<K, V> {
+
+	/**
+	 *
+	 */
+	public static final String LRU_POLICY = "lru";
+	public static final String TINY_LFU_POLICY = "tinylfu";
+
+	/**
+	 *
+	 */
+	protected final Map<K, Entry<V>> entries = new HashMap<K, Entry<V>>();
+
+	/**
+	 * Evicted values whose eviction listener has not returned yet
+	 */
+	protected final Map<K, V> pendingEvictions = new HashMap<K, V>();
+
+	/**
+	 *
+	 */
+	protected final EvictionPolicy<K> evictionPolicy;
+	protected final Weigher<? super K, ? super V> weigher;
+	protected EvictionListener<K, V> evictionListener = null;
+
+	/**
+	 *
+	 */
+	protected long maxWeight;
+	protected long weight = 0;
+
+	/**
+	 *
+	 */
+	protected final CacheStatistics statistics = new CacheStatistics();
+
+	/**
+	 * @methodtype constructor
+	 */
+	public BoundedCache(long maxSize, EvictionPolicy<K> policy) {
+		this(maxSize, policy, Weigher.SINGLETON);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public BoundedCache(long maxWeight, EvictionPolicy<K> policy, Weigher<? super K, ? super V> weigher) {
+		assertIsValidMaxWeight(maxWeight);
+		if (policy == null || weigher == null) {
+			throw new IllegalArgumentException("policy and weigher must not be null");
+		}
+
+		this.maxWeight = maxWeight;
+		this.evictionPolicy = policy;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static <K> EvictionPolicy<K> createEvictionPolicy(String name) throws IllegalArgumentException {
+		if (LRU_POLICY.equalsIgnoreCase(name)) {
+			return new LruEvictionPolicy<K>();
+		} else if (TINY_LFU_POLICY.equalsIgnoreCase(name)) {
+			return new TinyLfuEvictionPolicy<K>();
+		}
+
+		throw new IllegalArgumentException("unknown eviction policy: " + name);
+	}
+
+	/**
+	 * Returns the cached value or null; counts as hit or miss.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			statistics.recordMiss();
+			return null;
+		}
+
+		statistics.recordHit();
+		evictionPolicy.recordAccess(key);
+		return entry.value;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean containsKey(K key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Adds or replaces the value for key.
+	 *
+	 * @methodtype command
+	 */
+	public void put(K key, V value) {
+		List<Map.Entry<K, V>> evicted;
+		synchronized (this) {
+			doPut(key, value);
+			evicted = evictIfNecessary();
+		}
+		notifyEvictionListener(evicted);
+	}
+
+	/**
+	 * Adds value unless there already is a value for key. Returns the value that is in the cache afterwards.
+	 *
+	 * @methodtype command
+	 */
+	public V putIfAbsent(K key, V value) {
+		List<Map.Entry<K, V>> evicted;
+		synchronized (this) {
+			Entry<V> existing = entries.get(key);
+			if (existing != null) {
+				evictionPolicy.recordAccess(key);
+				return existing.value;
+			}
+
+			doPut(key, value);
+			evicted = evictIfNecessary();
+		}
+		notifyEvictionListener(evicted);
+		return value;
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doPut(K key, V value) {
+		if (key == null || value == null) {
+			throw new IllegalArgumentException("cache does not accept null keys or values");
+		}
+
+		Entry<V> newEntry = new Entry<V>(value, weigher.weigh(key, value));
+		Entry<V> oldEntry = entries.put(key, newEntry);
+		weight += newEntry.weight;
+		if (oldEntry != null) {
+			weight -= oldEntry.weight;
+			evictionPolicy.recordAccess(key);
+		} else {
+			evictionPolicy.recordInsertion(key);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected List<Map.Entry<K, V>> evictIfNecessary() {
+		List<Map.Entry<K, V>> result = null;
+		while (weight > maxWeight && !entries.isEmpty()) {
+			K victim = evictionPolicy.selectVictim();
+			if (victim == null) {
+				break;
+			}
+
+			Entry<V> entry = entries.remove(victim);
+			if (entry != null) {
+				weight -= entry.weight;
+				statistics.recordEviction();
+				if (evictionListener != null) {
+					pendingEvictions.put(victim, entry.value);
+				}
+				if (result == null) {
+					result = new ArrayList<Map.Entry<K, V>>();
+				}
+				result.add(new AbstractMap.SimpleImmutableEntry<K, V>(victim, entry.value));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void notifyEvictionListener(List<Map.Entry<K, V>> evicted) {
+		EvictionListener<K, V> listener = evictionListener;
+		if (evicted == null) {
+			return;
+		}
+
+		for (Map.Entry<K, V> entry : evicted) {
+			try {
+				if (listener != null) {
+					listener.onEviction(entry.getKey(), entry.getValue());
+				}
+			} finally {
+				removePendingEviction(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized void removePendingEviction(K key, V value) {
+		if (pendingEvictions.get(key) == value) {
+			pendingEvictions.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the value evicted for key whose eviction listener is still running, or null. Unlike get, this neither
+	 * counts as hit or miss nor puts the value back into the cache.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized V getPendingEviction(K key) {
+		return pendingEvictions.get(key);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized V remove(K key) {
+		Entry<V> entry = entries.remove(key);
+		if (entry == null) {
+			return null;
+		}
+
+		weight -= entry.weight;
+		evictionPolicy.recordRemoval(key);
+		return entry.value;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		evictionPolicy.clear();
+		weight = 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * Changes the bound; evicts immediately if the cache is too heavy now.
+	 *
+	 * @methodtype set
+	 */
+	public void setMaxWeight(long newMaxWeight) {
+		assertIsValidMaxWeight(newMaxWeight);
+		List<Map.Entry<K, V>> evicted;
+		synchronized (this) {
+			maxWeight = newMaxWeight;
+			evicted = evictIfNecessary();
+		}
+		notifyEvictionListener(evicted);
+	}
+
+	/**
+	 * Returns a snapshot of all keys; later changes to the cache are not reflected.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized Set<K> keySet() {
+		return new HashSet<K>(entries.keySet());
+	}
+
+	/**
+	 * Returns a snapshot of all values; later changes to the cache are not reflected.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized Collection<V> values() {
+		Collection<V> result = new ArrayList<V>(entries.size());
+		for (Entry<V> entry : entries.values()) {
+			result.add(entry.value);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setEvictionListener(EvictionListener<K, V> listener) {
+		evictionListener = listener;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsValidMaxWeight(long newMaxWeight) {
+		if (newMaxWeight < 0) {
+			throw new IllegalArgumentException("max weight must not be negative: " + newMaxWeight);
+		}
+	}
+
+	/**
+	 * A cached value together with its weight.
+	 */
+	protected static class Entry<V> {
+
+		protected final V value;
+		protected final long weight;
+
+		protected Entry(V value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+/**
+ * An eviction policy decides which entry of a BoundedCache has to go when the cache exceeds its bound.
+ * Implementations are not thread-safe; the owning cache serializes all calls.
+ */
+public interface EvictionPolicy<K> {
+
+	/**
+	 * Called when a new key has been added to the cache.
+	 */
+	void recordInsertion(K key);
+
+	/**
+	 * Called when an existing key has been read or replaced.
+	 */
+	void recordAccess(K key);
+
+	/**
+	 * Called when a key has been removed from the cache, but not by eviction.
+	 */
+	void recordRemoval(K key);
+
+	/**
+	 * Chooses the next key to evict and forgets about it. Returns null if the policy knows no keys.
+	 */
+	K selectVictim();
+
+	/**
+	 *
+	 */
+	void clear();
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+/**
+ * A count-min sketch that estimates how often a key has been seen recently. Counters saturate at 15 and are halved
+ * periodically, so old popularity fades out. Used by the TinyLFU admission filter.
+ */
+public class FrequencySketch {
+
+	/**
+	 *
+	 */
+	public static final int MAX_FREQUENCY = 15;
+	public static final int DEPTH = 4;
+
+	/**
+	 *
+	 */
+	protected static final int[] SEEDS = {0x97cb3127, 0x84222325, 0xcbf29ce4, 0x9e3779b9};
+
+	/**
+	 *
+	 */
+	protected byte[][] table;
+	protected int mask;
+	protected int additions = 0;
+	protected int sampleSize;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public FrequencySketch(int expectedKeys) {
+		ensureCapacity(expectedKeys);
+	}
+
+	/**
+	 * Resizes the sketch for the expected number of distinct keys. Resizing drops all collected frequencies.
+	 *
+	 * @methodtype command
+	 */
+	public void ensureCapacity(int expectedKeys) {
+		int width = Integer.highestOneBit(Math.max(16, expectedKeys) - 1) << 1;
+		if (table != null && table[0].length >= width) {
+			return;
+		}
+
+		table = new byte[DEPTH][width];
+		mask = width - 1;
+		sampleSize = 10 * width;
+		additions = 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getFrequency(Object key) {
+		int hash = spread(key.hashCode());
+		int result = MAX_FREQUENCY;
+		for (int i = 0; i < DEPTH; i++) {
+			result = Math.min(result, table[i][indexOf(hash, i)]);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean wasIncremented = false;
+		for (int i = 0; i < DEPTH; i++) {
+			int index = indexOf(hash, i);
+			if (table[i][index] < MAX_FREQUENCY) {
+				table[i][index]++;
+				wasIncremented = true;
+			}
+		}
+
+		if (wasIncremented && (++additions >= sampleSize)) {
+			age();
+		}
+	}
+
+	/**
+	 * Halves all counters so that the sketch follows changes in popularity.
+	 *
+	 * @methodtype command
+	 */
+	protected void age() {
+		for (byte[] row : table) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = (byte) (row[i] >>> 1);
+			}
+		}
+		additions = additions / 2;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected int indexOf(int hash, int row) {
+		int h = (hash ^ SEEDS[row]) * 0x9e3779b1;
+		h ^= h >>> 15;
+		return h & mask;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static int spread(int hash) {
+		int h = hash * 0x85ebca6b;
+		return h ^ (h >>> 16);
+	}
+
+}
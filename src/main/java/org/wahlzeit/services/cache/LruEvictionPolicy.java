@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Evicts the least recently used key first.
+ */
+public class LruEvictionPolicy<K> implements EvictionPolicy<K> {
+
+	/**
+	 * Iteration order is from least to most recently used
+	 */
+	protected LinkedHashSet<K> keys = new LinkedHashSet<K>();
+
+	/**
+	 *
+	 */
+	public void recordInsertion(K key) {
+		keys.remove(key);
+		keys.add(key);
+	}
+
+	/**
+	 *
+	 */
+	public void recordAccess(K key) {
+		if (keys.remove(key)) {
+			keys.add(key);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void recordRemoval(K key) {
+		keys.remove(key);
+	}
+
+	/**
+	 *
+	 */
+	public K selectVictim() {
+		Iterator<K> i = keys.iterator();
+		if (!i.hasNext()) {
+			return null;
+		}
+
+		K result = i.next();
+		i.remove();
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	public void clear() {
+		keys.clear();
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * W-TinyLFU eviction: new keys enter a small LRU window. Keys falling out of the window are candidates for the main
+ * area, which is a segmented LRU (probation and protected). When something has to go, the candidate competes with the
+ * oldest probation key and the one that has been seen less often according to the frequency sketch is evicted. This
+ * keeps one-off scans (e.g. a crawler walking all photos) from flushing the popular photos.
+ */
+public class TinyLfuEvictionPolicy<K> implements EvictionPolicy<K> {
+
+	/**
+	 *
+	 */
+	public static final int WINDOW_PERCENTAGE = 1;
+	public static final int PROTECTED_PERCENTAGE = 80;
+
+	/**
+	 * All segments iterate from least to most recently used
+	 */
+	protected LinkedHashSet<K> window = new LinkedHashSet<K>();
+	protected LinkedHashSet<K> probation = new LinkedHashSet<K>();
+	protected LinkedHashSet<K> protectedKeys = new LinkedHashSet<K>();
+
+	/**
+	 * Key that most recently moved from the window to probation
+	 */
+	protected K candidate = null;
+
+	/**
+	 *
+	 */
+	protected FrequencySketch sketch;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public TinyLfuEvictionPolicy() {
+		this(256);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public TinyLfuEvictionPolicy(int expectedKeys) {
+		sketch = new FrequencySketch(expectedKeys);
+	}
+
+	/**
+	 *
+	 */
+	public void recordInsertion(K key) {
+		recordRemoval(key);
+		sketch.increment(key);
+		window.add(key);
+
+		if (getSize() > sketch.table[0].length) {
+			sketch.ensureCapacity(2 * getSize());
+		}
+
+		if (window.size() > getMaxWindowSize()) {
+			K spilled = removeEldest(window);
+			probation.add(spilled);
+			candidate = spilled;
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void recordAccess(K key) {
+		sketch.increment(key);
+		if (window.remove(key)) {
+			window.add(key);
+		} else if (probation.remove(key)) {
+			if (key.equals(candidate)) {
+				candidate = null;
+			}
+			protectedKeys.add(key);
+			demoteProtectedOverflow();
+		} else if (protectedKeys.remove(key)) {
+			protectedKeys.add(key);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void recordRemoval(K key) {
+		if (!window.remove(key) && !probation.remove(key)) {
+			protectedKeys.remove(key);
+		}
+		if (key.equals(candidate)) {
+			candidate = null;
+		}
+	}
+
+	/**
+	 *
+	 */
+	public K selectVictim() {
+		if (probation.isEmpty()) {
+			if (!protectedKeys.isEmpty()) {
+				return removeEldest(protectedKeys);
+			}
+			return window.isEmpty() ? null : removeEldest(window);
+		}
+
+		K victim = probation.iterator().next();
+		if (candidate != null && !candidate.equals(victim)) {
+			K challenger = candidate;
+			candidate = null;
+			if (sketch.getFrequency(challenger) <= sketch.getFrequency(victim)) {
+				probation.remove(challenger);
+				return challenger;
+			}
+		}
+
+		probation.remove(victim);
+		if (victim.equals(candidate)) {
+			candidate = null;
+		}
+		return victim;
+	}
+
+	/**
+	 *
+	 */
+	public void clear() {
+		window.clear();
+		probation.clear();
+		protectedKeys.clear();
+		candidate = null;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return window.size() + probation.size() + protectedKeys.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected int getMaxWindowSize() {
+		return Math.max(1, getSize() * WINDOW_PERCENTAGE / 100);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void demoteProtectedOverflow() {
+		int maxProtectedSize = Math.max(1, (probation.size() + protectedKeys.size()) * PROTECTED_PERCENTAGE / 100);
+		while (protectedKeys.size() > maxProtectedSize) {
+			probation.add(removeEldest(protectedKeys));
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected K removeEldest(LinkedHashSet<K> segment) {
+		Iterator<K> i = segment.iterator();
+		K result = i.next();
+		i.remove();
+		return result;
+	}
+
+}
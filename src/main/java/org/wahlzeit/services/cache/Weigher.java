@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+/**
+ * A weigher computes the cost of a cache entry with respect to the bound of a BoundedCache.
+ */
+public interface Weigher<K, V> {
+
+	/**
+	 * Each entry counts as one, so the bound of the cache is a maximum number of entries
+	 */
+	Weigher<Object, Object> SINGLETON = new Weigher<Object, Object>() {
+		public long weigh(Object key, Object value) {
+			return 1;
+		}
+	};
+
+	/**
+	 * Returns a non-negative weight; must not change while the entry is in the cache.
+	 */
+	long weigh(K key, V value);
+
+}
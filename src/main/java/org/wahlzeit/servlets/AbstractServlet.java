@@ -25,6 +25,9 @@ import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.Session;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.WriteBehindQueue;
+import org.wahlzeit.utils.ContentEncodingUtil;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
@@ -33,7 +36,9 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.Iterator;
@@ -89,6 +94,7 @@ public abstract class AbstractServlet extends HttpServlet {
 			myGet(request, response);
 		}
 
+		WriteBehindQueue.getInstance().flushIfDue();
 		SessionManager.dropThreadLocalSession();
 	}
 
@@ -108,6 +114,7 @@ public abstract class AbstractServlet extends HttpServlet {
 			myPost(request, response);
 		}
 
+		WriteBehindQueue.getInstance().flushIfDue();
 		SessionManager.dropThreadLocalSession();
 	}
 
@@ -177,21 +184,88 @@ public abstract class AbstractServlet extends HttpServlet {
 	/**
 	 *
 	 */
-	protected void configureResponse(Session ctx, HttpServletResponse response, WebPart result) throws IOException {
+	protected void configureResponse(Session ctx, HttpServletRequest request, HttpServletResponse response,
+									 WebPart result) throws IOException {
+		addProcessingTime(ctx, result);
+
+		response.setContentType("text/html; charset=UTF-8");
+		boolean isGzipped = configureContentEncoding(request, response);
+
+		OutputStream out = response.getOutputStream();
+		if (isGzipped) {
+			out = ContentEncodingUtil.asGzipStream(out);
+		}
+		result.writeOn(out);
+		out.close();
+
+		response.setStatus(HttpServletResponse.SC_OK);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void addProcessingTime(Session ctx, WebPart result) {
 		long processingTime = ctx.getProcessingTime();
 		result.addString("processingTime", StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime));
 		log.config(LogBuilder.createSystemMessage().
 				addParameter("proctime", String.valueOf(processingTime)).toString());
+	}
 
-		response.setContentType("text/html");
-
-		PrintWriter out = response.getWriter();
+	/**
+	 * @methodtype conversion
+	 *
+	 * Renders the page into bytes, as configureResponse would write it. The processing time is part of the bytes, so
+	 * a page cached from them keeps showing the processing time of this render.
+	 */
+	protected byte[] renderPage(Session ctx, WebPart result) throws IOException {
+		addProcessingTime(ctx, result);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
 		result.writeOn(out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes an already rendered page; isGzipped tells whether the page bytes are gzip encoded.
+	 */
+	protected void writePage(HttpServletResponse response, byte[] page, boolean isGzipped) throws IOException {
+		response.setContentType("text/html; charset=UTF-8");
+		response.setHeader("Vary", "Accept-Encoding");
+		if (isGzipped) {
+			response.setHeader("Content-Encoding", ContentEncodingUtil.GZIP);
+		}
+		response.setContentLength(page.length);
+
+		OutputStream out = response.getOutputStream();
+		out.write(page);
 		out.close();
 
 		response.setStatus(HttpServletResponse.SC_OK);
 	}
 
+	/**
+	 * @methodtype boolean query
+	 */
+	protected boolean isGzipAccepted(HttpServletRequest request) {
+		return SysConfig.getInstance().getBooleanValue(SysConfig.COMPRESS_RESPONSES) &&
+				ContentEncodingUtil.isGzipAccepted(request.getHeader("Accept-Encoding"));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Sets the encoding headers of a dynamic page and returns whether the page has to be gzip encoded.
+	 */
+	protected boolean configureContentEncoding(HttpServletRequest request, HttpServletResponse response) {
+		response.setHeader("Vary", "Accept-Encoding");
+		boolean result = isGzipAccepted(request);
+		if (result) {
+			response.setHeader("Content-Encoding", ContentEncodingUtil.GZIP);
+		}
+		return result;
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A byte range of an HTTP Range request, with inclusive first and last positions (RFC 7233).
+ */
+public class ByteRange {
+
+	/**
+	 *
+	 */
+	public static final String BYTES_UNIT = "bytes";
+
+	/**
+	 * More ranges than this are merged into one, so that a request can not make us send many tiny parts
+	 */
+	public static final int MAX_NO_RANGES = 16;
+
+	/**
+	 *
+	 */
+	protected static final Comparator<ByteRange> BY_FIRST_POSITION = new Comparator<ByteRange>() {
+		@Override
+		public int compare(ByteRange a, ByteRange b) {
+			return Long.compare(a.first, b.first);
+		}
+	};
+
+	/**
+	 *
+	 */
+	protected final long first;
+	protected final long last;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ByteRange(long first, long last) {
+		if (first < 0 || last < first) {
+			throw new IllegalArgumentException("invalid byte range: " + first + "-" + last);
+		}
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getFirst() {
+		return first;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLast() {
+		return last;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLength() {
+		return last - first + 1;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asContentRange(long completeLength) {
+		return BYTES_UNIT + " " + first + "-" + last + "/" + completeLength;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Parses the value of a Range header for an entity of the given length. Returns null if the header is missing or
+	 * not a valid bytes range set; the header is then to be ignored. Returns an empty list if no range is satisfiable.
+	 * Overlapping and adjacent ranges are merged.
+	 */
+	public static List<ByteRange> parse(String rangeHeader, long length) {
+		if (rangeHeader == null || !rangeHeader.startsWith(BYTES_UNIT + "=")) {
+			return null;
+		}
+
+		List<ByteRange> result = new ArrayList<ByteRange>();
+		for (String spec : rangeHeader.substring(BYTES_UNIT.length() + 1).split(",")) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+
+			try {
+				String firstString = spec.substring(0, dash).trim();
+				String lastString = spec.substring(dash + 1).trim();
+				if (firstString.isEmpty()) {
+					long suffixLength = Long.parseLong(lastString);
+					if (suffixLength < 0) {
+						return null;
+					} else if (suffixLength > 0 && length > 0) {
+						result.add(new ByteRange(Math.max(0, length - suffixLength), length - 1));
+					}
+				} else {
+					long first = Long.parseLong(firstString);
+					long last = lastString.isEmpty() ? length - 1 : Long.parseLong(lastString);
+					if (first < 0 || last < first) {
+						return null;
+					} else if (first < length) {
+						result.add(new ByteRange(first, Math.min(last, length - 1)));
+					}
+				}
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+		}
+
+		return merge(result);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static List<ByteRange> merge(List<ByteRange> ranges) {
+		if (ranges.size() <= 1) {
+			return ranges;
+		}
+
+		List<ByteRange> sortedRanges = new ArrayList<ByteRange>(ranges);
+		Collections.sort(sortedRanges, BY_FIRST_POSITION);
+		List<ByteRange> result = new ArrayList<ByteRange>();
+		ByteRange current = sortedRanges.get(0);
+		for (ByteRange range : sortedRanges.subList(1, sortedRanges.size())) {
+			if (range.first <= current.last + 1) {
+				current = new ByteRange(current.first, Math.max(current.last, range.last));
+			} else {
+				result.add(current);
+				current = range;
+			}
+		}
+		result.add(current);
+
+		if (result.size() > MAX_NO_RANGES) {
+			ByteRange all = new ByteRange(result.get(0).first, result.get(result.size() - 1).last);
+			result.clear();
+			result.add(all);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof ByteRange)) {
+			return false;
+		}
+		ByteRange range = (ByteRange) other;
+		return first == range.first && last == range.last;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (31 * first + last);
+	}
+
+	@Override
+	public String toString() {
+		return first + "-" + last;
+	}
+
+}
@@ -21,26 +21,28 @@
 package org.wahlzeit.servlets;
 
 import com.google.api.client.util.Charsets;
-import com.google.appengine.api.images.Image;
-import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.common.io.CharStreams;
 import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.wahlzeit.handlers.PageCache;
 import org.wahlzeit.handlers.PartUtil;
 import org.wahlzeit.handlers.WebFormHandler;
 import org.wahlzeit.handlers.WebPageHandler;
 import org.wahlzeit.handlers.WebPartHandlerManager;
+import org.wahlzeit.model.UploadedImage;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.utils.ContentEncodingUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -111,6 +113,25 @@ public class MainServlet extends AbstractServlet {
 
 
 		WebPageHandler handler = WebPartHandlerManager.getWebPageHandler(link);
+		PageCache pageCache = PageCache.getInstance();
+		PageCache.Key pageKey = pageCache.getKey(us, handler, link, !request.getParameterMap().isEmpty());
+		boolean isGzipAccepted = isGzipAccepted(request);
+		byte[] cachedPage = null;
+		long pageVersion = 0;
+		if (pageKey != null) {
+			pageVersion = pageCache.getVersion(pageKey);
+			cachedPage = isGzipAccepted ? pageCache.getGzippedPage(pageKey) : pageCache.getPage(pageKey);
+		}
+		if (cachedPage != null) {
+			// served before any handler logic runs
+			handler.handleCachedGet(us, link);
+			writePage(response, cachedPage, isGzipAccepted);
+			us.clearSavedArgs();
+			us.resetProcessingTime();
+			SessionManager.dropThreadLocalSession();
+			return;
+		}
+
 		String newLink = PartUtil.DEFAULT_PAGE_NAME;
 		if (handler != null) {
 			Map args = getRequestArgs(request, us);
@@ -122,7 +143,19 @@ public class MainServlet extends AbstractServlet {
 		if (newLink.equals(link)) { // no redirect necessary
 			WebPart result = handler.makeWebPart(us);
 			us.addProcessingTime(System.currentTimeMillis() - startTime);
-			configureResponse(us, response, result);
+			if (pageKey != null) {
+				byte[] page = renderPage(us, result);
+				if (isGzipAccepted) {
+					byte[] gzippedPage = ContentEncodingUtil.gzip(page);
+					pageCache.putPage(pageKey, page, gzippedPage, pageVersion);
+					writePage(response, gzippedPage, true);
+				} else {
+					pageCache.putPage(pageKey, page, null, pageVersion);
+					writePage(response, page, false);
+				}
+			} else {
+				configureResponse(us, request, response, result);
+			}
 			us.clearSavedArgs(); // saved args go from post to next get
 			us.resetProcessingTime();
 		} else {
@@ -146,7 +179,8 @@ public class MainServlet extends AbstractServlet {
 
 	/**
 	 * Searches for files in the request and puts them in the resulting map with the key "fileName". When a file is
-	 * found, you can access its path by searching for elements with the key "fileName".
+	 * found, you can access its path by searching for elements with the key "fileName". The file itself is streamed to
+	 * a temporary file and kept as the uploaded image of the user.
 	 */
 	protected Map getMultiPartRequestArgs(HttpServletRequest request, UserSession us) throws IOException,
 			ServletException {
@@ -161,12 +195,20 @@ public class MainServlet extends AbstractServlet {
 				String filename = fileItemStream.getName();
 
 				if (!fileItemStream.isFormField()) {
-					InputStream inputStream = fileItemStream.openStream();
-					Image image = getImage(inputStream);
 					User user = (User) us.getClient();
-					user.setUploadedImage(image);
-					result.put("fileName", filename);
-					log.config(LogBuilder.createSystemMessage().addParameter("Uploaded image", filename).toString());
+					try (InputStream inputStream = fileItemStream.openStream()) {
+						UploadedImage image = UploadedImage.receive(inputStream, getUploadDir(), getMaxUploadSize());
+						user.setUploadedImage(image);
+						result.put("fileName", filename);
+						log.config(LogBuilder.createSystemMessage().
+								addParameter("Uploaded image", filename).
+								addParameter("bytes", image.getLength()).toString());
+					} catch (UploadedImage.SizeLimitExceededException ex) {
+						// the form handler reports the missing image; the rest of the form is still read
+						user.setUploadedImage(null);
+						log.warning(LogBuilder.createSystemMessage().
+								addException("Rejected upload of " + filename, ex).toString());
+					}
 				} else {
 					String key = fileItemStream.getFieldName();
 					InputStream is = fileItemStream.openStream();
@@ -185,22 +227,22 @@ public class MainServlet extends AbstractServlet {
 	}
 
 	/**
-	 * Create an Image object from the Input stream.
+	 * @methodtype get
+	 *
+	 * Returns the temp directory of the SysConfig, or null for the default temporary directory if it is not available.
 	 */
-	private Image getImage(InputStream input) throws IOException {
-		Image image;
-		try {
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			byte[] buffer = new byte[1024 * 1024];
-			int bytesRead = input.read(buffer);
-			while (bytesRead != -1) {
-				outputStream.write(buffer, 0, bytesRead);
-				bytesRead = input.read(buffer);
-			}
-			image = ImagesServiceFactory.makeImage(outputStream.toByteArray());
-		} finally {
-			input.close();
+	protected File getUploadDir() {
+		File result = new File(SysConfig.getTempDir().asString());
+		if (!result.isDirectory() && !result.mkdirs()) {
+			return null;
 		}
-		return image;
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getMaxUploadSize() {
+		return SysConfig.getInstance().getLongValue(SysConfig.MAX_UPLOAD_SIZE);
 	}
 }
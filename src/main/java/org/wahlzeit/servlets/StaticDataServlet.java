@@ -1,17 +1,19 @@
 package org.wahlzeit.servlets;
 
-import com.google.appengine.api.images.Image;
 import org.apache.http.HttpStatus;
-import org.wahlzeit.model.Photo;
-import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoSize;
-import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.RenditionGenerator;
+import org.wahlzeit.model.persistence.StoredImage;
 import org.wahlzeit.services.LogBuilder;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -26,6 +28,11 @@ public class StaticDataServlet extends AbstractServlet {
 
 	Logger log = Logger.getLogger(StaticDataServlet.class.getName());
 
+	/**
+	 * A rendition never changes once it has been written, so clients may keep it for a year without revalidating
+	 */
+	public static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		try {
@@ -40,11 +47,20 @@ public class StaticDataServlet extends AbstractServlet {
 					addParameter("size", size).toString());
 
 			if ("image".equals(type)) {
-				Image image = getImage(photoId, size);
+				StoredImage image = getImage(photoId, size);
 				if (image != null) {
-					response.getOutputStream().write(image.getImageData());
-					response.getOutputStream().flush();
-					response.setStatus(HttpStatus.SC_OK);
+					String eTag = "\"" + image.getETag() + "\"";
+					response.setHeader("ETag", eTag);
+					response.setHeader("Cache-Control", IMMUTABLE_CACHE_CONTROL);
+					if (image.getLastModified() > 0) {
+						response.setDateHeader("Last-Modified", image.getLastModified());
+					}
+					if (isNotModified(request, eTag, image.getLastModified())) {
+						response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+						return;
+					}
+
+					writeImage(request, response, image, eTag);
 				} else {
 					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
 					response.setStatus(HttpStatus.SC_NOT_FOUND);
@@ -63,29 +79,141 @@ public class StaticDataServlet extends AbstractServlet {
 	/**
 	 * @methodtype command
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
-	 * not exist, null is returned.
+	 * Writes the complete image, or only the byte ranges the client asked for. Only the requested ranges are read from
+	 * the storage.
 	 */
-	private Image getImage(String photoId, int size) {
-		Image image = null;
-		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
-		if (photo != null) {
-			PhotoSize photoSize = PhotoSize.getFromInt(size);
-			image = photo.getImage(photoSize);
+	protected void writeImage(HttpServletRequest request, HttpServletResponse response, StoredImage image, String eTag)
+			throws IOException {
+		long length = image.getLength();
+		response.setHeader("Accept-Ranges", ByteRange.BYTES_UNIT);
+
+		List<ByteRange> ranges = null;
+		if (isIfRangeSatisfied(request, eTag, image.getLastModified())) {
+			ranges = ByteRange.parse(request.getHeader("Range"), length);
 		}
-		// if not in cache load from Google Cloud Storage
-		if (image == null) {
-			Serializable rawImage = null;
-			try {
-				rawImage = ImageStorage.getInstance().readImage(photoId, size);
-			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+
+		if (ranges == null) {
+			response.setStatus(HttpStatus.SC_OK);
+			response.setContentType(image.getContentType());
+			response.setContentLength((int) length);
+			OutputStream out = response.getOutputStream();
+			image.writeTo(out);
+			out.flush();
+		} else if (ranges.isEmpty()) {
+			response.setStatus(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader("Content-Range", ByteRange.BYTES_UNIT + " */" + length);
+		} else if (ranges.size() == 1) {
+			ByteRange range = ranges.get(0);
+			response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+			response.setContentType(image.getContentType());
+			response.setHeader("Content-Range", range.asContentRange(length));
+			response.setContentLength((int) range.getLength());
+			OutputStream out = response.getOutputStream();
+			image.writeTo(out, range.getFirst(), range.getLength());
+			out.flush();
+		} else {
+			writeMultipartRanges(response, image, ranges);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void writeMultipartRanges(HttpServletResponse response, StoredImage image, List<ByteRange> ranges)
+			throws IOException {
+		String boundary = Long.toHexString(Double.doubleToLongBits(Math.random()));
+		List<byte[]> partHeaders = new ArrayList<byte[]>(ranges.size());
+		long contentLength = 0;
+		for (ByteRange range : ranges) {
+			String partHeader = "\r\n--" + boundary + "\r\n" +
+					"Content-Type: " + image.getContentType() + "\r\n" +
+					"Content-Range: " + range.asContentRange(image.getLength()) + "\r\n\r\n";
+			byte[] partHeaderBytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+			partHeaders.add(partHeaderBytes);
+			contentLength += partHeaderBytes.length + range.getLength();
+		}
+		byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		contentLength += trailer.length;
+
+		response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+		response.setContentType("multipart/byteranges; boundary=" + boundary);
+		response.setContentLength((int) contentLength);
+		OutputStream out = response.getOutputStream();
+		for (int i = 0; i < ranges.size(); i++) {
+			ByteRange range = ranges.get(i);
+			out.write(partHeaders.get(i));
+			image.writeTo(out, range.getFirst(), range.getLength());
+		}
+		out.write(trailer);
+		out.flush();
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * A Range header only applies if there is no If-Range, or if If-Range names the current ETag or modification time.
+	 */
+	protected boolean isIfRangeSatisfied(HttpServletRequest request, String eTag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		} else if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return ifRange.equals(eTag);
+		}
+
+		try {
+			long ifRangeDate = request.getDateHeader("If-Range");
+			return lastModified > 0 && lastModified / 1000 == ifRangeDate / 1000;
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * Evaluates If-None-Match, or If-Modified-Since if the client sent no entity tags.
+	 */
+	protected boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String candidate : ifNoneMatch.split(",")) {
+				candidate = candidate.trim();
+				if (candidate.startsWith("W/")) {
+					candidate = candidate.substring(2);
+				}
+				if (candidate.equals("*") || candidate.equals(eTag)) {
+					return true;
+				}
 			}
-			if (rawImage != null && rawImage instanceof Image) {
-				image = (Image) rawImage;
+			return false;
+		}
+
+		if (lastModified > 0) {
+			try {
+				long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+				// HTTP dates have a resolution of seconds
+				return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+			} catch (IllegalArgumentException ex) {
+				return false;
 			}
 		}
-		return image;
+		return false;
 	}
-}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Opens image from the <@link>ImageCache</@link>, which streams it from the <@link>ImageStorage</@link> if
+	 * necessary. A size that has not been created yet is created by the <@link>RenditionGenerator</@link>. If image
+	 * does not exist, null is returned.
+	 */
+	private StoredImage getImage(String photoIdAsString, int size) {
+		PhotoId photoId = PhotoId.getIdFromString(photoIdAsString);
+		if (photoId.isNullId()) {
+			return null;
+		}
+		PhotoSize photoSize = PhotoSize.getFromInt(size);
+		return RenditionGenerator.getInstance().openImage(photoId, photoSize);
+	}
+}
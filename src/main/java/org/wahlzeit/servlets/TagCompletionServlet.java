@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.Tags;
+import org.wahlzeit.services.LogBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Answers tag completions for the photo filter form as a JSON array of strings, e.g. ["flower","flowers"]. The
+ * completions come from the in-memory PhotoTagIndex, so typing does not cause Datastore queries.
+ */
+public class TagCompletionServlet extends AbstractServlet {
+
+	private static final Logger log = Logger.getLogger(TagCompletionServlet.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String PREFIX = "prefix";
+	public static final int MAX_COMPLETIONS = 10;
+
+	@Override
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String prefix = request.getParameter(PREFIX);
+		String tagPrefix = Tags.asTag(prefix != null ? prefix : "");
+		List<String> completions =
+				PhotoManager.getInstance().getPhotoTagIndex().getTagCompletions(tagPrefix, MAX_COMPLETIONS);
+		log.config(LogBuilder.createSystemMessage().
+				addAction("Complete tag").
+				addParameter("prefix", tagPrefix).
+				addParameter("completions", completions.size()).toString());
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		PrintWriter out = response.getWriter();
+		out.print(asJsonArray(completions));
+		out.close();
+		response.setStatus(HttpServletResponse.SC_OK);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Tags consist of letters and digits only (see Tags.asTag), so they need no escaping.
+	 */
+	protected String asJsonArray(List<String> values) {
+		StringBuilder result = new StringBuilder("[");
+		for (int i = 0; i < values.size(); i++) {
+			if (i > 0) {
+				result.append(',');
+			}
+			result.append('"').append(values.get(i)).append('"');
+		}
+		return result.append(']').toString();
+	}
+
+}
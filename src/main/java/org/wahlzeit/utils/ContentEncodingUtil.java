@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A set of utility functions for HTTP content encoding.
+ */
+public class ContentEncodingUtil {
+
+	/**
+	 *
+	 */
+	public static final String GZIP = "gzip";
+	public static final int BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * Returns true if the Accept-Encoding header value allows a gzip encoded response.
+	 */
+	public static boolean isGzipAccepted(String acceptEncoding) {
+		if (StringUtil.isNullOrEmptyString(acceptEncoding)) {
+			return false;
+		}
+
+		double gzipQuality = -1;
+		double anyQuality = -1;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] params = coding.split(";");
+			String name = params[0].trim().toLowerCase();
+			double quality = getQuality(params);
+			if (name.equals(GZIP) || name.equals("x-gzip")) {
+				gzipQuality = quality;
+			} else if (name.equals("*")) {
+				anyQuality = quality;
+			}
+		}
+
+		return (gzipQuality != -1) ? (gzipQuality > 0) : (anyQuality > 0);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static double getQuality(String[] params) {
+		for (int i = 1; i < params.length; i++) {
+			String param = params[i].trim();
+			if (param.startsWith("q=")) {
+				try {
+					return Double.parseDouble(param.substring(2).trim());
+				} catch (NumberFormatException ex) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Wraps the stream so that everything written to it is gzip encoded. Closing the result finishes the encoding.
+	 */
+	public static OutputStream asGzipStream(OutputStream out) throws IOException {
+		return new GZIPOutputStream(out, BUFFER_SIZE);
+	}
+
+	/**
+	 *
+	 */
+	public static byte[] gzip(byte[] bytes) {
+		ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.length / 4 + 64);
+		try (OutputStream out = asGzipStream(result)) {
+			out.write(bytes);
+		} catch (IOException ex) {
+			// in-memory streams do not fail
+			throw new IllegalStateException(ex);
+		}
+		return result.toByteArray();
+	}
+
+}
@@ -0,0 +1,712 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative ints in the style of a Roaring bitmap. Values are grouped by their upper 16 bits;
+ * each group is stored in a container that is either a sorted array (sparse) or a bitmap of 2^16 bits (dense).
+ * Intersection, union, and difference work container by container and word by word for dense containers.
+ */
+public class IntBitmap implements Serializable {
+
+	/**
+	 * Containers with more values than this are stored as bitmaps
+	 */
+	public static final int MAX_ARRAY_SIZE = 4096;
+
+	/**
+	 *
+	 */
+	protected static final int CONTAINER_SIZE = 1 << 16;
+	protected static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * Upper 16 bits of the values in containers[i], sorted
+	 */
+	protected char[] keys = new char[INITIAL_CAPACITY];
+	protected Container[] containers = new Container[INITIAL_CAPACITY];
+	protected int noContainers = 0;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public IntBitmap() {
+		// empty set
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public IntBitmap(IntBitmap other) {
+		keys = Arrays.copyOf(other.keys, Math.max(INITIAL_CAPACITY, other.noContainers));
+		containers = new Container[keys.length];
+		for (int i = 0; i < other.noContainers; i++) {
+			containers[i] = other.containers[i].copy();
+		}
+		noContainers = other.noContainers;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void add(int value) {
+		assertIsNonNegative(value);
+		char key = highBits(value);
+		int index = indexOf(key);
+		if (index >= 0) {
+			containers[index] = containers[index].add(lowBits(value));
+		} else {
+			insertContainer(-index - 1, key, new ArrayContainer().add(lowBits(value)));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void remove(int value) {
+		if (value < 0) {
+			return;
+		}
+
+		int index = indexOf(highBits(value));
+		if (index >= 0) {
+			Container container = containers[index].remove(lowBits(value));
+			if (container.getCardinality() == 0) {
+				removeContainer(index);
+			} else {
+				containers[index] = container;
+			}
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int value) {
+		if (value < 0) {
+			return false;
+		}
+
+		int index = indexOf(highBits(value));
+		return index >= 0 && containers[index].contains(lowBits(value));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getCardinality() {
+		int result = 0;
+		for (int i = 0; i < noContainers; i++) {
+			result += containers[i].getCardinality();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return noContainers == 0;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		keys = new char[INITIAL_CAPACITY];
+		containers = new Container[INITIAL_CAPACITY];
+		noContainers = 0;
+	}
+
+	/**
+	 * Returns the value at position rank in ascending order.
+	 *
+	 * @methodtype get
+	 */
+	public int select(int rank) {
+		if (rank < 0) {
+			throw new IndexOutOfBoundsException("rank: " + rank);
+		}
+
+		int remaining = rank;
+		for (int i = 0; i < noContainers; i++) {
+			int cardinality = containers[i].getCardinality();
+			if (remaining < cardinality) {
+				return (keys[i] << 16) | containers[i].select(remaining);
+			}
+			remaining -= cardinality;
+		}
+		throw new IndexOutOfBoundsException("rank: " + rank + ", cardinality: " + getCardinality());
+	}
+
+	/**
+	 * Returns all values in ascending order.
+	 *
+	 * @methodtype conversion
+	 */
+	public int[] toArray() {
+		int[] result = new int[getCardinality()];
+		int offset = 0;
+		for (int i = 0; i < noContainers; i++) {
+			offset = containers[i].fill(keys[i] << 16, result, offset);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a new bitmap with the values in both this and other.
+	 *
+	 * @methodtype factory
+	 */
+	public IntBitmap and(IntBitmap other) {
+		IntBitmap result = new IntBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < noContainers && j < other.noContainers) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				Container container = containers[i].and(other.containers[j]);
+				if (container.getCardinality() > 0) {
+					result.appendContainer(keys[i], container);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a new bitmap with the values in this or other.
+	 *
+	 * @methodtype factory
+	 */
+	public IntBitmap or(IntBitmap other) {
+		IntBitmap result = new IntBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < noContainers || j < other.noContainers) {
+			if (j == other.noContainers || (i < noContainers && keys[i] < other.keys[j])) {
+				result.appendContainer(keys[i], containers[i].copy());
+				i++;
+			} else if (i == noContainers || keys[i] > other.keys[j]) {
+				result.appendContainer(other.keys[j], other.containers[j].copy());
+				j++;
+			} else {
+				result.appendContainer(keys[i], containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a new bitmap with the values in this but not in other.
+	 *
+	 * @methodtype factory
+	 */
+	public IntBitmap andNot(IntBitmap other) {
+		IntBitmap result = new IntBitmap();
+		int j = 0;
+		for (int i = 0; i < noContainers; i++) {
+			while (j < other.noContainers && other.keys[j] < keys[i]) {
+				j++;
+			}
+
+			Container container;
+			if (j < other.noContainers && other.keys[j] == keys[i]) {
+				container = containers[i].andNot(other.containers[j]);
+			} else {
+				container = containers[i].copy();
+			}
+			if (container.getCardinality() > 0) {
+				result.appendContainer(keys[i], container);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof IntBitmap)) {
+			return false;
+		}
+		return Arrays.equals(toArray(), ((IntBitmap) o).toArray());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected int indexOf(char key) {
+		int low = 0;
+		int high = noContainers - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle] < key) {
+				low = middle + 1;
+			} else if (keys[middle] > key) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void insertContainer(int index, char key, Container container) {
+		ensureCapacity(noContainers + 1);
+		System.arraycopy(keys, index, keys, index + 1, noContainers - index);
+		System.arraycopy(containers, index, containers, index + 1, noContainers - index);
+		keys[index] = key;
+		containers[index] = container;
+		noContainers++;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void appendContainer(char key, Container container) {
+		insertContainer(noContainers, key, container);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void removeContainer(int index) {
+		System.arraycopy(keys, index + 1, keys, index, noContainers - index - 1);
+		System.arraycopy(containers, index + 1, containers, index, noContainers - index - 1);
+		containers[--noContainers] = null;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void ensureCapacity(int capacity) {
+		if (capacity > keys.length) {
+			int newCapacity = Math.max(capacity, 2 * keys.length);
+			keys = Arrays.copyOf(keys, newCapacity);
+			containers = Arrays.copyOf(containers, newCapacity);
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static char highBits(int value) {
+		return (char) (value >>> 16);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static char lowBits(int value) {
+		return (char) value;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected static void assertIsNonNegative(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("bitmap only holds non-negative values: " + value);
+		}
+	}
+
+	/**
+	 * Holds the lower 16 bits of all values that share the same upper 16 bits. Modifications return the container to
+	 * use afterwards, which may be of the other kind.
+	 */
+	protected static abstract class Container implements Serializable {
+
+		protected abstract Container add(char value);
+
+		protected abstract Container remove(char value);
+
+		protected abstract boolean contains(char value);
+
+		protected abstract int getCardinality();
+
+		protected abstract char select(int rank);
+
+		protected abstract int fill(int high, int[] target, int offset);
+
+		protected abstract Container copy();
+
+		protected abstract BitmapContainer toBitmapContainer();
+
+		protected abstract Container and(Container other);
+
+		protected abstract Container or(Container other);
+
+		protected abstract Container andNot(Container other);
+
+	}
+
+	/**
+	 * Sparse container: a sorted array of at most MAX_ARRAY_SIZE values
+	 */
+	protected static class ArrayContainer extends Container {
+
+		protected char[] values;
+		protected int cardinality = 0;
+
+		protected ArrayContainer() {
+			this(INITIAL_CAPACITY);
+		}
+
+		protected ArrayContainer(int capacity) {
+			values = new char[capacity];
+		}
+
+		@Override
+		protected Container add(char value) {
+			int index = Arrays.binarySearch(values, 0, cardinality, value);
+			if (index >= 0) {
+				return this;
+			}
+			if (cardinality >= MAX_ARRAY_SIZE) {
+				return toBitmapContainer().add(value);
+			}
+
+			index = -index - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, 2 * values.length));
+			}
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = value;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		protected Container remove(char value) {
+			int index = Arrays.binarySearch(values, 0, cardinality, value);
+			if (index >= 0) {
+				System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+				cardinality--;
+			}
+			return this;
+		}
+
+		@Override
+		protected boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		protected int getCardinality() {
+			return cardinality;
+		}
+
+		@Override
+		protected char select(int rank) {
+			return values[rank];
+		}
+
+		@Override
+		protected int fill(int high, int[] target, int offset) {
+			for (int i = 0; i < cardinality; i++) {
+				target[offset++] = high | values[i];
+			}
+			return offset;
+		}
+
+		@Override
+		protected Container copy() {
+			ArrayContainer result = new ArrayContainer(Math.max(INITIAL_CAPACITY, cardinality));
+			System.arraycopy(values, 0, result.values, 0, cardinality);
+			result.cardinality = cardinality;
+			return result;
+		}
+
+		@Override
+		protected BitmapContainer toBitmapContainer() {
+			BitmapContainer result = new BitmapContainer();
+			for (int i = 0; i < cardinality; i++) {
+				result.add(values[i]);
+			}
+			return result;
+		}
+
+		@Override
+		protected Container and(Container other) {
+			ArrayContainer result = new ArrayContainer(Math.max(INITIAL_CAPACITY, cardinality));
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				int i = 0;
+				int j = 0;
+				while (i < cardinality && j < array.cardinality) {
+					if (values[i] < array.values[j]) {
+						i++;
+					} else if (values[i] > array.values[j]) {
+						j++;
+					} else {
+						result.values[result.cardinality++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			} else {
+				for (int i = 0; i < cardinality; i++) {
+					if (other.contains(values[i])) {
+						result.values[result.cardinality++] = values[i];
+					}
+				}
+			}
+			return result;
+		}
+
+		@Override
+		protected Container or(Container other) {
+			if (!(other instanceof ArrayContainer)) {
+				return other.or(this);
+			}
+
+			ArrayContainer array = (ArrayContainer) other;
+			if (cardinality + array.cardinality > MAX_ARRAY_SIZE) {
+				return toBitmapContainer().or(other);
+			}
+
+			ArrayContainer result = new ArrayContainer(Math.max(INITIAL_CAPACITY, cardinality + array.cardinality));
+			int i = 0;
+			int j = 0;
+			while (i < cardinality || j < array.cardinality) {
+				char next;
+				if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+					next = values[i++];
+				} else if (i == cardinality || values[i] > array.values[j]) {
+					next = array.values[j++];
+				} else {
+					next = values[i++];
+					j++;
+				}
+				result.values[result.cardinality++] = next;
+			}
+			return result;
+		}
+
+		@Override
+		protected Container andNot(Container other) {
+			ArrayContainer result = new ArrayContainer(Math.max(INITIAL_CAPACITY, cardinality));
+			for (int i = 0; i < cardinality; i++) {
+				if (!other.contains(values[i])) {
+					result.values[result.cardinality++] = values[i];
+				}
+			}
+			return result;
+		}
+
+	}
+
+	/**
+	 * Dense container: one bit for each of the 2^16 possible values
+	 */
+	protected static class BitmapContainer extends Container {
+
+		protected static final int NO_WORDS = CONTAINER_SIZE / 64;
+
+		protected long[] words = new long[NO_WORDS];
+		protected int cardinality = 0;
+
+		@Override
+		protected Container add(char value) {
+			long mask = 1L << value;
+			int index = value >>> 6;
+			if ((words[index] & mask) == 0) {
+				words[index] |= mask;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		protected Container remove(char value) {
+			long mask = 1L << value;
+			int index = value >>> 6;
+			if ((words[index] & mask) != 0) {
+				words[index] &= ~mask;
+				cardinality--;
+			}
+			return cardinality <= MAX_ARRAY_SIZE ? toArrayContainer() : this;
+		}
+
+		@Override
+		protected boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		protected int getCardinality() {
+			return cardinality;
+		}
+
+		@Override
+		protected char select(int rank) {
+			int remaining = rank;
+			for (int i = 0; i < NO_WORDS; i++) {
+				int bitCount = Long.bitCount(words[i]);
+				if (remaining < bitCount) {
+					long word = words[i];
+					for (int k = 0; k < remaining; k++) {
+						word &= word - 1;
+					}
+					return (char) (i * 64 + Long.numberOfTrailingZeros(word));
+				}
+				remaining -= bitCount;
+			}
+			throw new IndexOutOfBoundsException("rank: " + rank);
+		}
+
+		@Override
+		protected int fill(int high, int[] target, int offset) {
+			for (int i = 0; i < NO_WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					target[offset++] = high | (i * 64 + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return offset;
+		}
+
+		@Override
+		protected Container copy() {
+			BitmapContainer result = new BitmapContainer();
+			System.arraycopy(words, 0, result.words, 0, NO_WORDS);
+			result.cardinality = cardinality;
+			return result;
+		}
+
+		@Override
+		protected BitmapContainer toBitmapContainer() {
+			return this;
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		protected ArrayContainer toArrayContainer() {
+			ArrayContainer result = new ArrayContainer(Math.max(INITIAL_CAPACITY, cardinality));
+			result.cardinality = cardinality;
+			int k = 0;
+			for (int i = 0; i < NO_WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					result.values[k++] = (char) (i * 64 + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		protected Container and(Container other) {
+			if (!(other instanceof BitmapContainer)) {
+				return other.and(this);
+			}
+
+			BitmapContainer result = new BitmapContainer();
+			long[] otherWords = ((BitmapContainer) other).words;
+			for (int i = 0; i < NO_WORDS; i++) {
+				result.words[i] = words[i] & otherWords[i];
+				result.cardinality += Long.bitCount(result.words[i]);
+			}
+			return result.cardinality <= MAX_ARRAY_SIZE ? result.toArrayContainer() : result;
+		}
+
+		@Override
+		protected Container or(Container other) {
+			BitmapContainer result = (BitmapContainer) copy();
+			if (other instanceof BitmapContainer) {
+				long[] otherWords = ((BitmapContainer) other).words;
+				result.cardinality = 0;
+				for (int i = 0; i < NO_WORDS; i++) {
+					result.words[i] |= otherWords[i];
+					result.cardinality += Long.bitCount(result.words[i]);
+				}
+			} else {
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.cardinality; i++) {
+					result.add(array.values[i]);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		protected Container andNot(Container other) {
+			BitmapContainer result = (BitmapContainer) copy();
+			if (other instanceof BitmapContainer) {
+				long[] otherWords = ((BitmapContainer) other).words;
+				result.cardinality = 0;
+				for (int i = 0; i < NO_WORDS; i++) {
+					result.words[i] &= ~otherWords[i];
+					result.cardinality += Long.bitCount(result.words[i]);
+				}
+			} else {
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.cardinality; i++) {
+					char value = array.values[i];
+					long mask = 1L << value;
+					if ((result.words[value >>> 6] & mask) != 0) {
+						result.words[value >>> 6] &= ~mask;
+						result.cardinality--;
+					}
+				}
+			}
+			return result.cardinality <= MAX_ARRAY_SIZE ? result.toArrayContainer() : result;
+		}
+
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * The FragmentCache keeps rendered parts that are the same for every user of a language, like info pages or page
+ * footers, per language and name. A fragment is checked against what it was rendered from on every lookup: a template
+ * that has been reloaded is a new template object, so its fragment is rendered anew without explicit invalidation.
+ */
+public class FragmentCache {
+
+	private static final Logger log = Logger.getLogger(FragmentCache.class.getName());
+
+	/**
+	 *
+	 */
+	protected static final FragmentCache instance = new FragmentCache();
+
+	/**
+	 *
+	 */
+	protected final Map<String, RenderedFragment> fragments = new ConcurrentHashMap<String, RenderedFragment>();
+
+	/**
+	 * @methodtype get
+	 */
+	public static FragmentCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the template rendered without values, or null if there is no such template.
+	 */
+	public RenderedFragment getTemplateFragment(String lang, String name) {
+		WebPartTemplate template = WebPartTemplateService.getInstance().getTemplate(lang, name);
+		if (template == null) {
+			return null;
+		}
+
+		String key = "template:" + lang + "/" + name;
+		RenderedFragment result = fragments.get(key);
+		if (result == null || !result.isRenderedFrom(template)) {
+			try {
+				result = RenderedFragment.render(template);
+				fragments.put(key, result);
+			} catch (IOException e) {
+				// cannot happen when writing to a string
+				log.warning(LogBuilder.createSystemMessage().
+						addParameter("template name", key).
+						addException("Problem when rendering template", e).toString());
+				return null;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the value as a fragment, encoded only once for as long as the value stays the same. Returns null for a
+	 * null value.
+	 */
+	public RenderedFragment getStringFragment(String lang, String name, String value) {
+		if (value == null) {
+			return null;
+		}
+
+		String key = "string:" + lang + "/" + name;
+		RenderedFragment result = fragments.get(key);
+		if (result == null || !result.isRenderedFrom(value)) {
+			result = new RenderedFragment(value, value);
+			fragments.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return fragments.size();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		fragments.clear();
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A RenderedFragment is a piece of HTML that has been rendered once, kept both as text and as UTF-8 bytes. It
+ * remembers what it was rendered from, so a cache can tell whether it is still current.
+ */
+public class RenderedFragment implements Writable {
+
+	/**
+	 *
+	 */
+	protected final Object source;
+	protected final String text;
+	protected final byte[] bytes;
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Renders the template without any values.
+	 */
+	public static RenderedFragment render(WebPartTemplate template) throws IOException {
+		StringWriter writer = new StringWriter();
+		new WebPart(template).writeOn(writer);
+		return new RenderedFragment(template, writer.toString());
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public RenderedFragment(Object source, String text) {
+		if (text == null) {
+			throw new IllegalArgumentException("text must not be null");
+		}
+		this.source = source;
+		this.text = text;
+		this.bytes = text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Object getSource() {
+		return source;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isRenderedFrom(Object otherSource) {
+		return source == otherSource || (source != null && source.equals(otherSource));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String asString() {
+		return text;
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(Writer out) throws IOException {
+		out.write(text);
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void writeOn(OutputStream out) throws IOException {
+		out.write(bytes);
+	}
+
+}
@@ -24,14 +24,17 @@ import org.wahlzeit.utils.EnumValue;
 import org.wahlzeit.utils.HtmlUtil;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 /**
  * A WebPart is a Writable formatted as HTML, working off a template.
  * A WebPart has its data set from a client using key/value pairs.
  * A WebPart has a recursive structure; it may contain further WebParts.
+ * Values are kept by the slot the template assigns to their key; values for keys the template does not have are
+ * ignored, as they could never be written.
  */
 public class WebPart implements Writable {
 
@@ -41,19 +44,24 @@ public class WebPart implements Writable {
 	protected WebPartTemplate template = null;
 
 	/**
-	 *
+	 * Values indexed by slot
 	 */
-	protected Map<String, Object> parts = new HashMap<String, Object>();
+	protected Object[] parts;
 
 	/**
 	 *
 	 */
 	public WebPart(WebPartTemplate myTemplate) {
 		template = myTemplate;
+		parts = new Object[template.getNoSlots()];
 	}
 
+	/**
+	 * @methodtype get
+	 */
 	public Object getValue(String key) {
-		return parts.get(key);
+		int slot = template.getSlot(key);
+		return slot != -1 ? parts[slot] : null;
 	}
 
 	/**
@@ -170,7 +178,10 @@ public class WebPart implements Writable {
 	 */
 	protected void putValue(String key, Object value) {
 		if (value != null) {
-			parts.put(key, value);
+			int slot = template.getSlot(key);
+			if (slot != -1) {
+				parts[slot] = value;
+			}
 		}
 	}
 
@@ -178,33 +189,39 @@ public class WebPart implements Writable {
 	 *
 	 */
 	public void writeOn(Writer out) throws IOException {
-		String tmpl = template.asString();
-		String[] keys = template.getKeys();
-		int[] slots = template.getSlots();
-
-		int start = 0;
-		for (int i = 0; i < keys.length; i++) {
-			int index = slots[i];
-			out.write(tmpl, start, index - start);
-
-			String key = keys[i];
-			if (key != null) {
-				Object object = parts.get(key);
-				if (object != null) {
-					if (object instanceof Writable) {
-						Writable part = (Writable) object;
-						part.writeOn(out);
-					} else {
-						String value = object.toString();
-						out.write(value);
-					}
-				}
+		int lastChunk = template.getNoChunks() - 1;
+		for (int i = 0; i < lastChunk; i++) {
+			out.write(template.getChunk(i));
+
+			Object object = parts[template.getChunkSlot(i)];
+			if (object instanceof Writable) {
+				((Writable) object).writeOn(out);
+			} else if (object != null) {
+				out.write(object.toString());
 			}
+		}
 
-			start = index;
+		out.write(template.getChunk(lastChunk));
+	}
+
+	/**
+	 * Writes the pre-encoded chunks of the template as they are; only the values are encoded.
+	 */
+	@Override
+	public void writeOn(OutputStream out) throws IOException {
+		int lastChunk = template.getNoChunks() - 1;
+		for (int i = 0; i < lastChunk; i++) {
+			out.write(template.getEncodedChunk(i));
+
+			Object object = parts[template.getChunkSlot(i)];
+			if (object instanceof Writable) {
+				((Writable) object).writeOn(out);
+			} else if (object != null) {
+				out.write(object.toString().getBytes(StandardCharsets.UTF_8));
+			}
 		}
 
-		out.write(tmpl, start, tmpl.length() - start);
+		out.write(template.getEncodedChunk(lastChunk));
 	}
 
 }
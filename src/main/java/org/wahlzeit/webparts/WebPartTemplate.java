@@ -20,12 +20,19 @@
 
 package org.wahlzeit.webparts;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A WebPartTmpl is a template for a WebPart.
  * It gets initialized once and is read-only after that.
+ *
+ * Initializing a template compiles it into a program: the static text between two slots is a chunk, kept as a string
+ * and pre-encoded as UTF-8 bytes, and every distinct key is resolved to an integer slot. A WebPart keeps its values in
+ * an array indexed by slot and renders by alternating chunks and slot values.
  */
 public class WebPartTemplate {
 
@@ -45,6 +52,19 @@ public class WebPartTemplate {
 	protected String[] keys = null;
 	protected int[] slots = null;
 
+	/**
+	 * The compiled program: chunk i is followed by the value of slot chunkSlots[i]; the last chunk by nothing
+	 */
+	protected String[] chunks = {""};
+	protected byte[][] encodedChunks = {new byte[0]};
+	protected int[] chunkSlots = new int[0];
+
+	/**
+	 * Distinct keys by slot, and slots by key
+	 */
+	protected String[] slotKeys = new String[0];
+	protected Map<String, Integer> slotsByKey = new HashMap<String, Integer>();
+
 	/**
 	 *
 	 */
@@ -72,9 +92,9 @@ public class WebPartTemplate {
 					slotList.add(nextSlot);
 
 					buffer.replace(nextSlot, endSlot + 1, "");
-					index = nextSlot;
 				}
-				index = endSlot;
+				// the slot has been cut out, so the next one may start right where it was
+				index = (endSlot != -1) ? nextSlot : -1;
 			} else {
 				index = -1;
 			}
@@ -89,6 +109,43 @@ public class WebPartTemplate {
 		}
 
 		template = buffer.toString();
+		compile();
+	}
+
+	/**
+	 * @methodtype initialization
+	 */
+	protected void compile() {
+		Map<String, Integer> newSlotsByKey = new HashMap<String, Integer>();
+		List<String> newSlotKeys = new LinkedList<String>();
+		int length = keys.length;
+		String[] newChunks = new String[length + 1];
+		byte[][] newEncodedChunks = new byte[length + 1][];
+		int[] newChunkSlots = new int[length];
+
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			newChunks[i] = template.substring(start, slots[i]);
+			Integer slot = newSlotsByKey.get(keys[i]);
+			if (slot == null) {
+				slot = newSlotKeys.size();
+				newSlotsByKey.put(keys[i], slot);
+				newSlotKeys.add(keys[i]);
+			}
+			newChunkSlots[i] = slot;
+			start = slots[i];
+		}
+		newChunks[length] = template.substring(start);
+
+		for (int i = 0; i <= length; i++) {
+			newEncodedChunks[i] = newChunks[i].getBytes(StandardCharsets.UTF_8);
+		}
+
+		chunks = newChunks;
+		encodedChunks = newEncodedChunks;
+		chunkSlots = newChunkSlots;
+		slotKeys = newSlotKeys.toArray(new String[newSlotKeys.size()]);
+		slotsByKey = newSlotsByKey;
 	}
 
 	/**
@@ -119,4 +176,51 @@ public class WebPartTemplate {
 		return slots; // @FIXME needs cloning?
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the slot of the key, or -1 if the template has no such key.
+	 */
+	public int getSlot(String key) {
+		Integer result = slotsByKey.get(key);
+		return result != null ? result : -1;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoSlots() {
+		return slotKeys.length;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoChunks() {
+		return chunks.length;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getChunk(int i) {
+		return chunks[i];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public byte[] getEncodedChunk(int i) {
+		return encodedChunks[i]; // read-only by convention, like the keys and slots
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the slot whose value follows chunk i.
+	 */
+	public int getChunkSlot(int i) {
+		return chunkSlots[i];
+	}
+
 }
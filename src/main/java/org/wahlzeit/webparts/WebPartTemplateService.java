@@ -27,29 +27,57 @@ import org.wahlzeit.services.LogBuilder;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
  * The WebPartTemplateService creates WebPartTemplates upon request by reading them from disk.
  * It requires configuration with a template directory and uses the following naming convention: tmplDir/language/part-type/part-name.html
+ *
+ * All templates are loaded and compiled when the templates directory is set, so looking up a template never touches
+ * the file system. If watching is started, a changed template file is recompiled in the background and replaces the
+ * old template in one step; requests see either the old or the new template, never a partial one.
  */
 public class WebPartTemplateService {
 
+	/**
+	 *
+	 */
+	public static final String TEMPLATE_FILE_EXTENSION = ".html";
+
 	/**
 	 *
 	 */
 	protected static final WebPartTemplateService instance = new WebPartTemplateService();
 	private static final Logger log = Logger.getLogger(WebPartTemplateService.class.getName());
+	/**
+	 * Templates by short name, always with '/' as separator
+	 */
+	protected Map<String, WebPartTemplate> templates = new ConcurrentHashMap<String, WebPartTemplate>();
 	/**
 	 *
 	 */
-	protected Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>();
+	protected volatile ConfigDir templatesDir = null;
+
+	/**
+	 * Set once all templates have been loaded; from then on, unknown templates are not searched for on disk
+	 */
+	protected volatile boolean isPreloaded = false;
+
 	/**
 	 *
 	 */
-	protected ConfigDir templatesDir = null;
+	protected WatchService watchService = null;
+	protected Thread watchThread = null;
+	protected final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<WatchKey, Path>();
 
 	/**
 	 *
@@ -70,12 +98,12 @@ public class WebPartTemplateService {
 	 */
 	public WebPartTemplate getTemplate(String lang, String name) {
 		String shortName = lang + File.separator + name;
-		WebPartTemplate result = templates.get(shortName);
+		WebPartTemplate result = templates.get(asTemplateKey(shortName));
 
-		if (result == null) {
+		if (result == null && !isPreloaded) {
 			try {
 				loadTemplate(shortName);
-				result = templates.get(shortName);
+				result = templates.get(asTemplateKey(shortName));
 			} catch (IOException ioex) {
 				log.warning(LogBuilder.createSystemMessage().
 						addParameter("template name", shortName).
@@ -90,29 +118,247 @@ public class WebPartTemplateService {
 	 *
 	 */
 	protected void loadTemplate(String shortName) throws IOException {
-		WebPartTemplate template = new WebPartTemplate(shortName);
-		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + ".html");
+		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + TEMPLATE_FILE_EXTENSION);
 		log.config(LogBuilder.createSystemMessage().
 				addAction("open html template file").
 				addParameter("file name", fileName).toString());
-		File file = new File(fileName);
 
 		try {
-			String source = Files.toString(file, Charsets.UTF_8);
-			//String source = Resources.toString(Resources.getResource(fileName), Charsets.UTF_8);
+			WebPartTemplate template = readTemplate(shortName, new File(fileName));
+			templates.put(asTemplateKey(shortName), template);
+		} catch (IOException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("I/O Error while reading Template file", e).toString());
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected WebPartTemplate readTemplate(String shortName, File file) throws IOException {
+		WebPartTemplate result = new WebPartTemplate(shortName);
+		String source = Files.toString(file, Charsets.UTF_8);
+		//String source = Resources.toString(Resources.getResource(fileName), Charsets.UTF_8);
+
+		if (source != null) {
+			result.initialize(source);
+			log.config(LogBuilder.createSystemMessage().addAction("Initialize template").toString());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Loads and compiles all templates of all languages. A default template takes precedence over a custom one of the
+	 * same name, as in ConfigDir.
+	 */
+	public void loadTemplates() {
+		ConfigDir dir = getTemplatesDir();
+		int noTemplates = 0;
+		noTemplates += loadTemplates(new File(dir.asString(), ConfigDir.CUSTOM_DIR_NAME), "");
+		noTemplates += loadTemplates(new File(dir.asString(), ConfigDir.DEFAULT_DIR_NAME), "");
+		isPreloaded = true;
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("preload templates").
+				addParameter("number of template files", noTemplates).toString());
+	}
 
-			if (source != null) {
-				template.initialize(source);
-				log.config(LogBuilder.createSystemMessage().addAction("Initialize template").toString());
+	/**
+	 * @methodtype helper
+	 */
+	protected int loadTemplates(File dir, String prefix) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return 0;
+		}
+
+		int result = 0;
+		for (File file : files) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				result += loadTemplates(file, name + "/");
+			} else if (name.endsWith(TEMPLATE_FILE_EXTENSION)) {
+				String shortName = name.substring(0, name.length() - TEMPLATE_FILE_EXTENSION.length());
+				try {
+					templates.put(shortName, readTemplate(shortName, file));
+					result++;
+				} catch (IOException e) {
+					log.warning(LogBuilder.createSystemMessage().
+							addParameter("file name", file.getPath()).
+							addException("I/O Error while reading Template file", e).toString());
+				}
 			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reloads the template of the given short name from disk, or drops it if there is no such file anymore.
+	 */
+	public void reloadTemplate(String shortName) {
+		ConfigDir dir = getTemplatesDir();
+		String fileName = shortName + TEMPLATE_FILE_EXTENSION;
+		File file = new File(dir.getAbsoluteDefaultConfigFileName(fileName));
+		if (!file.isFile()) {
+			file = new File(dir.getAbsoluteCustomConfigFileName(fileName));
+		}
 
-			templates.put(shortName, template);
+		String key = asTemplateKey(shortName);
+		if (!file.isFile()) {
+			templates.remove(key);
+			log.info(LogBuilder.createSystemMessage().
+					addAction("drop removed template").
+					addParameter("template name", key).toString());
+			return;
+		}
+
+		try {
+			templates.put(key, readTemplate(key, file));
+			log.info(LogBuilder.createSystemMessage().
+					addAction("reload changed template").
+					addParameter("template name", key).toString());
 		} catch (IOException e) {
+			// keep the old template rather than none
 			log.warning(LogBuilder.createSystemMessage().
-					addException("I/O Error while reading Template file", e).toString());
+					addParameter("template name", key).
+					addException("I/O Error while reloading Template file", e).toString());
 		}
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Starts a daemon thread that reloads templates when their files change.
+	 */
+	public synchronized void startWatching() throws IOException {
+		if (watchService != null) {
+			return;
+		}
+
+		watchService = FileSystems.getDefault().newWatchService();
+		ConfigDir dir = getTemplatesDir();
+		registerAll(new File(dir.asString(), ConfigDir.DEFAULT_DIR_NAME).toPath());
+		registerAll(new File(dir.asString(), ConfigDir.CUSTOM_DIR_NAME).toPath());
+
+		final WatchService service = watchService;
+		watchThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processEvents(service);
+			}
+		}, "template-watcher");
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void stopWatching() throws IOException {
+		if (watchService != null) {
+			watchService.close();
+			watchService = null;
+			watchThread = null;
+			watchedDirs.clear();
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void registerAll(Path dir) throws IOException {
+		File[] files = dir.toFile().listFiles();
+		if (files == null) {
+			return;
+		}
+
+		WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		watchedDirs.put(key, dir);
+		for (File file : files) {
+			if (file.isDirectory()) {
+				registerAll(file.toPath());
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void processEvents(WatchService service) {
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				Path dir = watchedDirs.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (dir != null && event.kind() != StandardWatchEventKinds.OVERFLOW) {
+						handleEvent(service, dir.resolve((Path) event.context()));
+					}
+				}
+				if (!key.reset()) {
+					watchedDirs.remove(key);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// stopWatching has been called
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void handleEvent(WatchService service, Path path) {
+		try {
+			if (path.toFile().isDirectory()) {
+				synchronized (this) {
+					if (service == watchService) {
+						registerAll(path);
+					}
+				}
+			} else if (path.toString().endsWith(TEMPLATE_FILE_EXTENSION)) {
+				String shortName = getShortName(path);
+				if (shortName != null) {
+					reloadTemplate(shortName);
+				}
+			}
+		} catch (IOException e) {
+			log.warning(LogBuilder.createSystemMessage().
+					addParameter("path", path.toString()).
+					addException("Problem when watching templates", e).toString());
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the short name of a template file below the default or custom directory, or null for any other file.
+	 */
+	protected String getShortName(Path path) {
+		ConfigDir dir = getTemplatesDir();
+		for (String subDirName : new String[] {ConfigDir.DEFAULT_DIR_NAME, ConfigDir.CUSTOM_DIR_NAME}) {
+			Path subDir = new File(dir.asString(), subDirName).toPath().toAbsolutePath().normalize();
+			Path absolutePath = path.toAbsolutePath().normalize();
+			if (absolutePath.startsWith(subDir)) {
+				String fileName = asTemplateKey(subDir.relativize(absolutePath).toString());
+				return fileName.substring(0, fileName.length() - TEMPLATE_FILE_EXTENSION.length());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asTemplateKey(String shortName) {
+		return shortName.replace(File.separatorChar, '/');
+	}
+
 	/**
 	 *
 	 */
@@ -125,6 +371,8 @@ public class WebPartTemplateService {
 	 */
 	public void setTemplatesDir(ConfigDir newTemplatesDir) {
 		templatesDir = newTemplatesDir;
+		templates.clear();
+		isPreloaded = false;
 	}
 
 }
@@ -21,10 +21,13 @@
 package org.wahlzeit.webparts;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 /**
- * A Writable can write a representation of itself to a Writer.
+ * A Writable can write a representation of itself to a Writer, or as UTF-8 bytes to an OutputStream.
  */
 public interface Writable {
 
@@ -33,4 +36,14 @@ public interface Writable {
 	 */
 	void writeOn(Writer writer) throws IOException;
 
+	/**
+	 * Writes the representation as UTF-8. The default goes through a Writer; implementations that know their bytes in
+	 * advance should write them directly.
+	 */
+	default void writeOn(OutputStream out) throws IOException {
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		writeOn(writer);
+		writer.flush();
+	}
+
 }
@@ -21,6 +21,7 @@
 package org.wahlzeit.webparts;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -52,6 +53,16 @@ public class WritableList implements Writable {
 		}
 	}
 
+	/**
+	 *
+	 */
+	@Override
+	public void writeOn(OutputStream out) throws IOException {
+		for (Writable part : writables) {
+			part.writeOn(out);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -12,22 +12,35 @@ package org.wahlzeit;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.wahlzeit.handlers.TellFriendTest;
+import org.wahlzeit.handlers.PageCacheTest;
 import org.wahlzeit.model.*;
 import org.wahlzeit.model.persistence.AbstractAdapterTest;
 import org.wahlzeit.model.persistence.DatastoreAdapterTest;
+import org.wahlzeit.model.persistence.FileSystemAdapterTest;
 import org.wahlzeit.services.EmailServiceTestSuite;
 import org.wahlzeit.services.LogBuilderTest;
+import org.wahlzeit.services.ObjectManagerTest;
+import org.wahlzeit.services.WriteBehindQueueTest;
+import org.wahlzeit.services.cache.BoundedCacheTest;
+import org.wahlzeit.servlets.ByteRangeTest;
+import org.wahlzeit.utils.ContentEncodingUtilTest;
+import org.wahlzeit.utils.IntBitmapTest;
 import org.wahlzeit.utils.StringUtilTest;
 import org.wahlzeit.utils.VersionTest;
+import org.wahlzeit.webparts.FragmentCacheTest;
+import org.wahlzeit.webparts.WebPartTemplateServiceTest;
+import org.wahlzeit.webparts.WebPartTest;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({TellFriendTest.class, DatastoreAdapterTest.class,
+@Suite.SuiteClasses({TellFriendTest.class, DatastoreAdapterTest.class, FileSystemAdapterTest.class,
         AccessRightsTest.class, CoordinateTest.class, FlagReasonTest.class, GenderTest.class, GuestTest.class,
         LocationTest.class, PhotoFilterTest.class, TagsTest.class, UserStatusTest.class, ValueTest.class,
         EmailServiceTestSuite.class, LogBuilderTest.class, StringUtilTest.class, VersionTest.class, StickerTest.class,
         StickerPhotoTest.class, StickerPhotoManagerTest.class, StickerPhotoFactoryTest.class,
         SphericCoordinateTest.class, CartesianCoordinateTest.class, CoordinateTest.class, StickerManagerTest.class,
-		StickerTypeTest.class})
+		StickerTypeTest.class, BoundedCacheTest.class, ImageCacheTest.class, PhotoTagIndexTest.class, PhotoQueryTest.class, TagTrieTest.class, PhotoManagerTest.class, PhotoUtilTest.class, ImageScalerTest.class, LocalImageScalerTest.class, RenditionGeneratorTest.class, UploadedImageTest.class, ObjectManagerTest.class, WriteBehindQueueTest.class,
+		IntBitmapTest.class, ByteRangeTest.class, WebPartTest.class, WebPartTemplateServiceTest.class, FragmentCacheTest.class, PageCacheTest.class,
+		ContentEncodingUtilTest.class})
 public class AllTests {
 
 }
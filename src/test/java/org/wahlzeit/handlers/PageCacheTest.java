@@ -0,0 +1,120 @@
+package org.wahlzeit.handlers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.services.Language;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test class for storage, expiry and invalidation in {@link PageCache}.
+ */
+public class PageCacheTest {
+
+	private final PageCache pageCache = new PageCache();
+
+	@Before
+	public void setUp() {
+		pageCache.setEnabled(true);
+	}
+
+	@After
+	public void tearDown() {
+		pageCache.setEnabled(false);
+	}
+
+	@Test
+	public void testPutAndGetPage() {
+		PageCache.Key key = new PageCache.Key("about", Language.ENGLISH, PhotoSize.MEDIUM);
+		byte[] page = {1, 2, 3};
+
+		pageCache.putPage(key, page);
+
+		assertArrayEquals(page, pageCache.getPage(new PageCache.Key("about", Language.ENGLISH, PhotoSize.MEDIUM)));
+		assertNull(pageCache.getPage(new PageCache.Key("about", Language.GERMAN, PhotoSize.MEDIUM)));
+		assertNull(pageCache.getPage(new PageCache.Key("about", Language.ENGLISH, PhotoSize.LARGE)));
+	}
+
+	@Test
+	public void testGzippedPageIsCreatedOnce() throws IOException {
+		PageCache.Key key = new PageCache.Key("about", Language.ENGLISH, PhotoSize.MEDIUM);
+		byte[] page = "<html><body>about</body></html>".getBytes("UTF-8");
+
+		pageCache.putPage(key, page);
+
+		byte[] gzippedPage = pageCache.getGzippedPage(key);
+		assertArrayEquals(page, readAll(new GZIPInputStream(new ByteArrayInputStream(gzippedPage))));
+		assertSame(gzippedPage, pageCache.getGzippedPage(key));
+		assertArrayEquals(page, pageCache.getPage(key));
+	}
+
+	@Test
+	public void testExpiredPageIsDropped() {
+		PageCache.Key key = new PageCache.Key("about", Language.ENGLISH, PhotoSize.MEDIUM);
+		pageCache.setTimeToLive(-1);
+
+		pageCache.putPage(key, new byte[] {1});
+
+		assertNull(pageCache.getPage(key));
+		assertEquals(0, pageCache.getSize());
+	}
+
+	@Test
+	public void testInvalidatePhotoDropsAllItsPages() {
+		PhotoId photoId = PhotoId.getIdFromInt(4711);
+		pageCache.putPage(new PageCache.Key(photoId.asString(), Language.ENGLISH, PhotoSize.MEDIUM), new byte[] {1});
+		pageCache.putPage(new PageCache.Key(photoId.asString(), Language.GERMAN, PhotoSize.SMALL), new byte[] {2});
+		PageCache.Key otherKey = new PageCache.Key("about", Language.ENGLISH, PhotoSize.MEDIUM);
+		pageCache.putPage(otherKey, new byte[] {3});
+
+		pageCache.invalidatePhoto(photoId);
+
+		assertEquals(1, pageCache.getSize());
+		assertArrayEquals(new byte[] {3}, pageCache.getPage(otherKey));
+	}
+
+	@Test
+	public void testPageRenderedBeforeInvalidationIsNotStored() {
+		PhotoId photoId = PhotoId.getIdFromInt(4712);
+		PageCache.Key key = new PageCache.Key(photoId.asString(), Language.ENGLISH, PhotoSize.MEDIUM);
+		long version = pageCache.getVersion(key);
+
+		pageCache.invalidatePhoto(photoId);
+		pageCache.putPage(key, new byte[] {1}, null, version);
+
+		assertNull(pageCache.getPage(key));
+		pageCache.putPage(key, new byte[] {1}, null, pageCache.getVersion(key));
+		assertArrayEquals(new byte[] {1}, pageCache.getPage(key));
+	}
+
+	@Test
+	public void testDisabledCacheStoresNothing() {
+		pageCache.setEnabled(false);
+		PageCache.Key key = new PageCache.Key("about", Language.ENGLISH, PhotoSize.MEDIUM);
+
+		pageCache.putPage(key, new byte[] {1});
+
+		assertNull(pageCache.getPage(key));
+	}
+
+	protected byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+			result.write(buffer, 0, n);
+		}
+		return result.toByteArray();
+	}
+}
@@ -0,0 +1,84 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.persistence.InMemoryStoredImage;
+import org.wahlzeit.model.persistence.StoredImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link ImageCache}.
+ */
+public class ImageCacheTest {
+
+	private ImageCache imageCache;
+
+	@Before
+	public void setUp() {
+		imageCache = new ImageCache(100, 1000);
+	}
+
+	@Test
+	public void testCacheIsBoundedByBytes() {
+		imageCache.putImage(new PhotoId(1), PhotoSize.MEDIUM, createImage(400));
+		imageCache.putImage(new PhotoId(2), PhotoSize.MEDIUM, createImage(400));
+		imageCache.putImage(new PhotoId(3), PhotoSize.MEDIUM, createImage(400));
+
+		assertNull(imageCache.getCachedImage(new PhotoId(1), PhotoSize.MEDIUM));
+		assertEquals(800, imageCache.getWeight());
+	}
+
+	@Test
+	public void testThumbnailsStayResident() {
+		Image thumb = createImage(50);
+		imageCache.putImage(new PhotoId(1), PhotoSize.THUMB, thumb);
+		for (int i = 2; i < 10; i++) {
+			imageCache.putImage(new PhotoId(i), PhotoSize.EXTRA_LARGE, createImage(400));
+		}
+
+		assertSame(thumb, imageCache.getCachedImage(new PhotoId(1), PhotoSize.THUMB));
+	}
+
+	@Test
+	public void testPendingImagesAreNotEvicted() {
+		Image image = createImage(2000);
+		imageCache.putPendingImage(new PhotoId(1), PhotoSize.LARGE, image);
+		imageCache.putImage(new PhotoId(2), PhotoSize.LARGE, createImage(900));
+
+		assertSame(image, imageCache.getPendingImage(new PhotoId(1), PhotoSize.LARGE));
+		assertSame(image, imageCache.getCachedImage(new PhotoId(1), PhotoSize.LARGE));
+	}
+
+	@Test
+	public void testMarkAsSavedMovesImageIntoBoundedCache() {
+		Image image = createImage(300);
+		imageCache.putPendingImage(new PhotoId(1), PhotoSize.SMALL, image);
+		imageCache.markAsSaved(new PhotoId(1), PhotoSize.SMALL);
+
+		assertNull(imageCache.getPendingImage(new PhotoId(1), PhotoSize.SMALL));
+		assertSame(image, imageCache.getCachedImage(new PhotoId(1), PhotoSize.SMALL));
+		assertEquals(300, imageCache.getWeight());
+	}
+
+	@Test
+	public void testOpenImageServesCachedImageFromMemory() {
+		Image image = createImage(300);
+		imageCache.putImage(new PhotoId(1), PhotoSize.SMALL, image);
+
+		StoredImage storedImage = imageCache.openImage(new PhotoId(1), PhotoSize.SMALL);
+		assertTrue(storedImage instanceof InMemoryStoredImage);
+		assertSame(image, ((InMemoryStoredImage) storedImage).getImage());
+		assertEquals(300, storedImage.getLength());
+	}
+
+	private Image createImage(int length) {
+		return ImagesServiceFactory.makeImage(new byte[length]);
+	}
+
+}
@@ -0,0 +1,75 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the cascading of {@link ImageScaler}.
+ */
+public class ImageScalerTest {
+
+	private RecordingImageScaler scaler;
+	private List<ImageScaler.ScalingStep> steps;
+
+	@Before
+	public void setUp() {
+		scaler = new RecordingImageScaler();
+		steps = Arrays.asList(
+				new ImageScaler.ScalingStep(PhotoSize.EXTRA_LARGE, null, 800, 600),
+				new ImageScaler.ScalingStep(PhotoSize.MEDIUM, PhotoSize.EXTRA_LARGE, 400, 300),
+				new ImageScaler.ScalingStep(PhotoSize.THUMB, PhotoSize.MEDIUM, 100, 75));
+	}
+
+	@Test
+	public void testCascadedStepsDoNotBlockTheCaller() throws Exception {
+		Map<PhotoSize, Future<Image>> renditions = scaler.scaleAllAsync(createImage(1), steps);
+
+		assertEquals(Arrays.asList(800), scaler.targetWidths);
+		assertFalse(renditions.get(PhotoSize.THUMB).isDone());
+
+		scaler.results.get(0).complete(createImage(8));
+		assertEquals(1, renditions.get(PhotoSize.THUMB).get().getImageData()[0]);
+		assertEquals(Arrays.asList(800, 400, 100), scaler.targetWidths);
+		assertEquals(Arrays.asList(1, 8, 4), scaler.inputs);
+		assertTrue(renditions.get(PhotoSize.MEDIUM).isDone());
+	}
+
+	private static Image createImage(int value) {
+		return ImagesServiceFactory.makeImage(new byte[] {(byte) value});
+	}
+
+	/**
+	 * Leaves the first rendition open and creates the others at once, with a hundredth of the target width as image data
+	 */
+	private static class RecordingImageScaler extends ImageScaler {
+
+		private List<Integer> targetWidths = new ArrayList<Integer>();
+		private List<Integer> inputs = new ArrayList<Integer>();
+		private List<CompletableFuture<Image>> results = new ArrayList<CompletableFuture<Image>>();
+
+		@Override
+		protected synchronized Future<Image> doScaleAsync(Image image, int targetWidth, int targetHeight) {
+			targetWidths.add(targetWidth);
+			inputs.add((int) image.getImageData()[0]);
+			CompletableFuture<Image> result = new CompletableFuture<Image>();
+			if (!results.isEmpty()) {
+				result.complete(createImage(targetWidth / 100));
+			}
+			results.add(result);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link LocalImageScaler}.
+ */
+public class LocalImageScalerTest {
+
+	private LocalImageScaler scaler;
+
+	@Before
+	public void setUp() {
+		scaler = new LocalImageScaler(0.8f, 2);
+	}
+
+	@After
+	public void tearDown() {
+		scaler.shutDown();
+	}
+
+	@Test
+	public void testOpaqueImagesAreScaledToJpeg() throws Exception {
+		Image source = createImage(1600, 1200, BufferedImage.TYPE_INT_RGB, "png");
+
+		BufferedImage result = decode(scaler.scaleAsync(source, 150, 113).get());
+
+		assertEquals(150, result.getWidth());
+		assertEquals(113, result.getHeight());
+		assertFalse(result.getColorModel().hasAlpha());
+	}
+
+	@Test
+	public void testImagesWithAlphaStayPng() throws Exception {
+		Image source = createImage(400, 300, BufferedImage.TYPE_INT_ARGB, "png");
+
+		Image scaled = scaler.scale(source, 40, 30);
+		BufferedImage result = decode(scaled);
+
+		assertEquals(40, result.getWidth());
+		assertEquals(30, result.getHeight());
+		assertTrue(result.getColorModel().hasAlpha());
+	}
+
+	@Test
+	public void testUpscaling() throws Exception {
+		Image source = createImage(30, 20, BufferedImage.TYPE_INT_RGB, "jpeg");
+
+		BufferedImage result = decode(scaler.scale(source, 90, 60));
+
+		assertEquals(90, result.getWidth());
+		assertEquals(60, result.getHeight());
+	}
+
+	@Test
+	public void testCascadeDecodesTheSourceOnce() throws Exception {
+		final AtomicInteger noDecodes = new AtomicInteger();
+		scaler.shutDown();
+		scaler = new LocalImageScaler(0.8f, 2) {
+			@Override
+			protected BufferedImage decode(byte[] data) throws IOException {
+				noDecodes.incrementAndGet();
+				return super.decode(data);
+			}
+		};
+		Image source = createImage(1600, 1200, BufferedImage.TYPE_INT_RGB, "png");
+		List<ImageScaler.ScalingStep> steps = Arrays.asList(
+				new ImageScaler.ScalingStep(PhotoSize.EXTRA_LARGE, null, 800, 600),
+				new ImageScaler.ScalingStep(PhotoSize.MEDIUM, PhotoSize.EXTRA_LARGE, 400, 300),
+				new ImageScaler.ScalingStep(PhotoSize.THUMB, PhotoSize.MEDIUM, 100, 75));
+
+		Map<PhotoSize, Future<Image>> renditions = scaler.scaleAllAsync(source, steps);
+
+		assertEquals(800, decode(renditions.get(PhotoSize.EXTRA_LARGE).get()).getWidth());
+		assertEquals(400, decode(renditions.get(PhotoSize.MEDIUM).get()).getWidth());
+		assertEquals(75, decode(renditions.get(PhotoSize.THUMB).get()).getHeight());
+		assertEquals(1, noDecodes.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCascadeNeedsEarlierScalingSource() throws Exception {
+		Image source = createImage(400, 300, BufferedImage.TYPE_INT_RGB, "png");
+		scaler.scaleAllAsync(source, Arrays.asList(
+				new ImageScaler.ScalingStep(PhotoSize.THUMB, PhotoSize.MEDIUM, 100, 75)));
+	}
+
+	@Test
+	public void testUnsupportedImage() {
+		try {
+			scaler.scale(ImagesServiceFactory.makeImage(new byte[] {1, 2, 3}), 10, 10);
+			fail();
+		} catch (IOException ex) {
+			// expected
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidQuality() {
+		new LocalImageScaler(1.5f, 1);
+	}
+
+	private Image createImage(int width, int height, int type, String format) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, type);
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				image.setRGB(x, y, (x * 7 + y * 13) | ((x + y) % 256) << 24);
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, format, out);
+		return ImagesServiceFactory.makeImage(out.toByteArray());
+	}
+
+	private BufferedImage decode(Image image) throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(image.getImageData()));
+	}
+}
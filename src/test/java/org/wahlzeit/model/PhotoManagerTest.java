@@ -0,0 +1,204 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.services.cache.BoundedCache;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test class for the persistence of tags in {@link PhotoManager}.
+ */
+public class PhotoManagerTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private final PhotoManager photoManager = new PhotoManager();
+
+	@Test
+	public void testUpdateTagsWritesOnlyTheDifference() {
+		final Photo photo = new Photo();
+		photo.setTags(new Tags("flower, red"));
+		updateTags(photo);
+		assertEquals(asSet("tg:flower", "tg:red"), readTagTexts(photo));
+
+		Tag flowerTag = photo.getPersistedTags().get("tg:flower");
+		photo.setTags(new Tags("flower, blue"));
+		updateTags(photo);
+
+		assertEquals(asSet("tg:flower", "tg:blue"), readTagTexts(photo));
+		assertSame(flowerTag, photo.getPersistedTags().get("tg:flower"));
+	}
+
+	@Test
+	public void testUpdateTagsReadsPersistedTagsOnce() {
+		final Photo photo = new Photo();
+		photo.setTags(new Tags("flower"));
+		updateTags(photo);
+
+		photo.setPersistedTags(null);
+		updateTags(photo);
+		Tag flowerTag = photo.getPersistedTags().get("tg:flower");
+		updateTags(photo);
+
+		assertEquals(asSet("tg:flower"), readTagTexts(photo));
+		assertSame(flowerTag, photo.getPersistedTags().get("tg:flower"));
+	}
+
+	@Test
+	public void testEvictedPhotoIsReloadedByKey() {
+		final Photo photo = new Photo();
+		photo.location = null; // coordinates are no registered Objectify subclasses
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				OfyService.ofy().save().entity(photo).now();
+				photoManager.loadPhotos();
+				return null;
+			}
+		});
+		assertNotNull(photoManager.photoKeys.get(photo.getId()));
+
+		photoManager.photoCache.clear();
+
+		Photo reloaded = photoManager.getPhotoFromId(photo.getId());
+		assertNotNull(reloaded);
+		assertEquals(photo.getId(), reloaded.getId());
+	}
+
+	@Test
+	public void testEvictedPhotoIsFoundWhileBeingSaved() {
+		final List<Photo> foundWhileSaving = new ArrayList<Photo>();
+		PhotoManager savingPhotoManager = new PhotoManager() {
+			@Override
+			public void savePhoto(Photo photo) {
+				foundWhileSaving.add(getPhotoFromId(photo.getId()));
+			}
+		};
+		savingPhotoManager.photoCache = savingPhotoManager.createPhotoCache(1, BoundedCache.LRU_POLICY);
+		Photo evictedPhoto = new Photo();
+		evictedPhoto.incWriteCount();
+		Photo cleanPhoto = new Photo();
+		cleanPhoto.resetWriteCount();
+
+		savingPhotoManager.doAddPhoto(evictedPhoto);
+		savingPhotoManager.doAddPhoto(cleanPhoto);
+
+		assertEquals(1, foundWhileSaving.size());
+		assertSame(evictedPhoto, foundWhileSaving.get(0));
+	}
+
+	@Test
+	public void testFindPhotosWithNewPraiseQueriesEvictedPhotos() {
+		final Photo praisedPhoto = new Photo();
+		praisedPhoto.location = null;
+		praisedPhoto.addToPraise(5);
+		final Photo otherPhoto = new Photo();
+		otherPhoto.location = null;
+		Set<Photo> found = ObjectifyService.run(new Work<Set<Photo>>() {
+			@Override
+			public Set<Photo> run() {
+				OfyService.ofy().save().entities(praisedPhoto, otherPhoto).now();
+				return photoManager.findPhotosWithNewPraise();
+			}
+		});
+
+		assertEquals(1, found.size());
+		assertEquals(praisedPhoto.getId(), found.iterator().next().getId());
+	}
+
+	@Test
+	public void testImageThatFailedToSaveStaysPending() {
+		ImageStorage.setInstance(new ImageStorage() {
+			@Override
+			protected void doWriteImage(Serializable image, String photoIdAsString, int size) throws IOException {
+				throw new IOException("storage not available");
+			}
+
+			@Override
+			protected Serializable doReadImage(String filename, int size) {
+				return null;
+			}
+
+			@Override
+			protected boolean doDoesImageExist(String photoIdAsString, int size) {
+				return false;
+			}
+
+			@Override
+			protected Set<PhotoSize> doGetImageSizes(String photoIdAsString) {
+				return EnumSet.noneOf(PhotoSize.class);
+			}
+		});
+		ImageCache imageCache = ImageCache.getInstance();
+		Photo photo = new Photo();
+		imageCache.putPendingImage(photo.getId(), PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[] {1, 2, 3}));
+
+		try {
+			photoManager.saveScaledImages(photo);
+			assertNotNull(imageCache.getPendingImage(photo.getId(), PhotoSize.THUMB));
+		} finally {
+			imageCache.clear();
+			ImageStorage.setInstance(null);
+		}
+	}
+
+	private void updateTags(final Photo photo) {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				photoManager.updateTags(photo);
+				return null;
+			}
+		});
+	}
+
+	private Set<String> readTagTexts(final Photo photo) {
+		List<Tag> tags = ObjectifyService.run(new Work<List<Tag>>() {
+			@Override
+			public List<Tag> run() {
+				return OfyService.ofy().load().type(Tag.class).ancestor(ObjectManager.applicationRootKey).
+						filter(Tag.PHOTO_ID, photo.getIdAsString()).list();
+			}
+		});
+
+		Set<String> result = new HashSet<String>();
+		for (Tag tag : tags) {
+			result.add(tag.getText());
+		}
+		assertEquals("duplicate tag entities", result.size(), tags.size());
+		return result;
+	}
+
+	private Set<String> asSet(String... values) {
+		Set<String> result = new HashSet<String>();
+		for (String value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoQuery} and its subclasses.
+ */
+public class PhotoQueryTest {
+
+	private PhotoTagIndex index;
+	private PhotoId redFlower;
+	private PhotoId blueFlower;
+	private PhotoId redTulip;
+	private PhotoId untagged;
+
+	@Before
+	public void setUp() {
+		index = new PhotoTagIndex();
+		redFlower = PhotoId.getNextId();
+		blueFlower = PhotoId.getNextId();
+		redTulip = PhotoId.getNextId();
+		untagged = PhotoId.getNextId();
+		index.updatePhoto(redFlower, Arrays.asList("tg:flower", "tg:red"));
+		index.updatePhoto(blueFlower, Arrays.asList("tg:flower", "tg:blue"));
+		index.updatePhoto(redTulip, Arrays.asList("tg:flower", "tg:red", "tg:tulip"));
+		index.updatePhoto(untagged, Collections.<String>emptyList());
+	}
+
+	@Test
+	public void testConjunction() {
+		assertEquals(Arrays.asList(redFlower, redTulip), evaluate("flower, red"));
+	}
+
+	@Test
+	public void testDisjunctionIsDeduplicated() {
+		assertEquals(Arrays.asList(redFlower, blueFlower, redTulip), evaluate("red | flower | blue"));
+	}
+
+	@Test
+	public void testNegation() {
+		assertEquals(Arrays.asList(redFlower), evaluate("flower, red, -tulip"));
+		assertEquals(Arrays.asList(blueFlower, untagged), evaluate("!red"));
+	}
+
+	@Test
+	public void testCombined() {
+		assertEquals(Arrays.asList(redFlower, blueFlower), evaluate("flower, red | blue, -tulip"));
+	}
+
+	@Test
+	public void testEmptyQueryMatchesAllPhotos() {
+		assertEquals(4, evaluate("").size());
+	}
+
+	@Test
+	public void testUnknownTagMatchesNothing() {
+		assertTrue(evaluate("flower, unknown").isEmpty());
+	}
+
+	@Test
+	public void testCheapestOperandFirst() {
+		AndQuery query = PhotoQuery.parse("-blue, flower, tulip");
+		List<PhotoQuery> ordered = query.getOrderedOperands(index);
+
+		assertEquals("tg:tulip", ordered.get(0).asString());
+		assertEquals("tg:flower", ordered.get(1).asString());
+		assertTrue(ordered.get(2) instanceof NotQuery);
+	}
+
+	private List<PhotoId> evaluate(String query) {
+		return PhotoQuery.parse(query).evaluate(index).asList();
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoTagIndex}.
+ */
+public class PhotoTagIndexTest {
+
+	private PhotoTagIndex photoTagIndex;
+	private PhotoId first;
+	private PhotoId second;
+
+	@Before
+	public void setUp() {
+		photoTagIndex = new PhotoTagIndex();
+		first = PhotoId.getNextId();
+		second = PhotoId.getNextId();
+	}
+
+	@Test
+	public void testPostingListsAreSorted() {
+		photoTagIndex.updatePhoto(second, Arrays.asList("tg:flower", "un:bob"));
+		photoTagIndex.updatePhoto(first, Arrays.asList("tg:flower"));
+
+		assertEquals(Arrays.asList(first, second), photoTagIndex.getPhotoIds("tg:flower").asList());
+		assertEquals(Collections.singletonList(second), photoTagIndex.getPhotoIds("un:bob").asList());
+		assertEquals(Arrays.asList(first, second), photoTagIndex.getAllPhotoIds().asList());
+	}
+
+	@Test
+	public void testUpdateReplacesTags() {
+		photoTagIndex.updatePhoto(first, Arrays.asList("tg:flower", "tg:red"));
+		photoTagIndex.updatePhoto(first, Arrays.asList("tg:red", "tg:blue"));
+
+		assertTrue(photoTagIndex.getPhotoIds("tg:flower").isEmpty());
+		assertEquals(Collections.singletonList(first), photoTagIndex.getPhotoIds("tg:red").asList());
+		assertEquals(Collections.singletonList(first), photoTagIndex.getPhotoIds("tg:blue").asList());
+		assertEquals(2, photoTagIndex.getNoTags());
+	}
+
+	@Test
+	public void testRemovePhoto() {
+		photoTagIndex.updatePhoto(first, Arrays.asList("tg:flower"));
+		photoTagIndex.updatePhoto(second, Arrays.asList("tg:flower"));
+		photoTagIndex.removePhoto(first);
+
+		assertFalse(photoTagIndex.hasPhoto(first));
+		assertEquals(1, photoTagIndex.getNoPhotoIds("tg:flower"));
+		assertEquals(Collections.singletonList(second), photoTagIndex.getAllPhotoIds().asList());
+	}
+
+	@Test
+	public void testPhotoWithoutTagsIsIndexed() {
+		photoTagIndex.updatePhoto(first, Collections.<String>emptyList());
+
+		assertTrue(photoTagIndex.hasPhoto(first));
+		assertEquals(Collections.singletonList(first), photoTagIndex.getAllPhotoIds().asList());
+	}
+
+	@Test
+	public void testVisiblePhotoIdsFollowVisibility() {
+		photoTagIndex.updatePhoto(first, Arrays.asList("tg:flower"));
+		photoTagIndex.updatePhoto(second, Arrays.asList("tg:flower"));
+		photoTagIndex.setVisible(first, true);
+		photoTagIndex.setVisible(second, true);
+		photoTagIndex.setVisible(second, false);
+
+		PhotoIdSet candidates = photoTagIndex.getPhotoIds("tg:flower");
+		assertEquals(Collections.singletonList(first), photoTagIndex.getVisiblePhotoIds(candidates).asList());
+
+		photoTagIndex.removePhoto(first);
+		assertFalse(photoTagIndex.isVisible(first));
+		assertTrue(photoTagIndex.getVisiblePhotoIds(photoTagIndex.getAllPhotoIds()).isEmpty());
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test class for the rendition cascade of {@link PhotoUtil}.
+ */
+public class PhotoUtilTest {
+
+	@Test
+	public void testSmallerSizesAreScaledFromLargerRenditions() {
+		assertNull(PhotoUtil.getScalingSource(PhotoSize.EXTRA_LARGE, 4000, 3000));
+		assertNull(PhotoUtil.getScalingSource(PhotoSize.LARGE, 4000, 3000));
+		assertEquals(PhotoSize.EXTRA_LARGE, PhotoUtil.getScalingSource(PhotoSize.MEDIUM, 4000, 3000));
+		assertEquals(PhotoSize.LARGE, PhotoUtil.getScalingSource(PhotoSize.SMALL, 4000, 3000));
+		assertEquals(PhotoSize.MEDIUM, PhotoUtil.getScalingSource(PhotoSize.EXTRA_SMALL, 4000, 3000));
+		assertEquals(PhotoSize.EXTRA_SMALL, PhotoUtil.getScalingSource(PhotoSize.THUMB, 4000, 3000));
+	}
+
+	@Test
+	public void testMissingRenditionsAreScaledFromTheSource() {
+		// too small for an extra large rendition
+		assertNull(PhotoUtil.getScalingSource(PhotoSize.MEDIUM, 700, 500));
+		assertEquals(PhotoSize.MEDIUM, PhotoUtil.getScalingSource(PhotoSize.EXTRA_SMALL, 700, 500));
+	}
+
+	@Test
+	public void testNarrowSourcesCascade() {
+		// higher than the extra large box, so there is an extra large rendition of 276 x 1200
+		assertEquals(PhotoSize.EXTRA_LARGE, PhotoUtil.getScalingSource(PhotoSize.MEDIUM, 300, 1300));
+	}
+
+	@Test
+	public void testOnlyEagerAndLargestSizesAreCreated() {
+		PhotoUtil.setEagerSizes(EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM));
+
+		assertEquals(EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM, PhotoSize.EXTRA_LARGE),
+				PhotoUtil.getSizesToCreate(4000, 3000));
+		// too small for a medium rendition
+		assertEquals(EnumSet.of(PhotoSize.THUMB, PhotoSize.SMALL), PhotoUtil.getSizesToCreate(300, 400));
+	}
+
+	@Test
+	public void testMissingCascadeSourcesAreSkipped() {
+		EnumSet<PhotoSize> available = EnumSet.of(PhotoSize.MEDIUM, PhotoSize.EXTRA_LARGE);
+
+		assertEquals(PhotoSize.MEDIUM, PhotoUtil.getScalingSource(PhotoSize.THUMB, 4000, 3000, available));
+		assertEquals(PhotoSize.EXTRA_LARGE, PhotoUtil.getScalingSource(PhotoSize.MEDIUM, 4000, 3000, available));
+		assertNull(PhotoUtil.getScalingSource(PhotoSize.SMALL, 4000, 3000, available));
+	}
+
+	@Test
+	public void testScalingStepsGoFromLargerToSmallerRenditions() {
+		PhotoUtil.setEagerSizes(EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM));
+
+		List<ImageScaler.ScalingStep> steps = PhotoUtil.getScalingSteps(4000, 3000);
+
+		assertEquals(3, steps.size());
+		assertEquals(PhotoSize.EXTRA_LARGE, steps.get(0).getSize());
+		assertNull(steps.get(0).getScalingSource());
+		assertEquals(PhotoSize.MEDIUM, steps.get(1).getSize());
+		assertEquals(PhotoSize.EXTRA_LARGE, steps.get(1).getScalingSource());
+		assertEquals(PhotoSize.THUMB, steps.get(2).getSize());
+		assertEquals(PhotoSize.MEDIUM, steps.get(2).getScalingSource());
+	}
+
+	@Test
+	public void testParsePhotoSizes() {
+		assertEquals(EnumSet.of(PhotoSize.THUMB, PhotoSize.EXTRA_LARGE),
+				PhotoUtil.parsePhotoSizes("extra-large, thumb"));
+		assertEquals(EnumSet.noneOf(PhotoSize.class), PhotoUtil.parsePhotoSizes(""));
+	}
+}
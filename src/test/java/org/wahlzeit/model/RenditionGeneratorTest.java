@@ -0,0 +1,116 @@
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the single-flight guard of {@link RenditionGenerator}.
+ */
+public class RenditionGeneratorTest {
+
+	private final Image image = ImagesServiceFactory.makeImage(new byte[] {1, 2, 3});
+
+	@Test
+	public void testConcurrentRequestsShareOneComputation() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger noComputations = new AtomicInteger();
+		final RenditionGenerator generator = new RenditionGenerator() {
+			@Override
+			protected Image createImage(PhotoId photoId, PhotoSize photoSize) throws Exception {
+				noComputations.incrementAndGet();
+				started.countDown();
+				release.await();
+				return image;
+			}
+		};
+
+		final List<Thread> callers = new CopyOnWriteArrayList<Thread>();
+		ExecutorService executor = Executors.newFixedThreadPool(8, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable);
+				callers.add(result);
+				return result;
+			}
+		});
+		try {
+			List<Future<Image>> results = new ArrayList<Future<Image>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<Image>() {
+					@Override
+					public Image call() {
+						return generator.getOrCreateImage(new PhotoId(4711), PhotoSize.LARGE);
+					}
+				}));
+			}
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			// one caller waits for the release, the others for the computation in flight
+			assertTrue(awaitAllWaiting(callers, 8, 5000));
+			release.countDown();
+
+			for (Future<Image> result : results) {
+				assertSame(image, result.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, noComputations.get());
+		assertTrue(generator.inFlight.isEmpty());
+	}
+
+	/**
+	 * Returns true once noThreads threads are there and all of them are waiting, or false after timeout milliseconds
+	 */
+	private boolean awaitAllWaiting(List<Thread> threads, int noThreads, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (System.currentTimeMillis() < deadline) {
+			boolean isAllWaiting = threads.size() == noThreads;
+			for (Thread thread : threads) {
+				isAllWaiting &= thread.getState() == Thread.State.WAITING;
+			}
+			if (isAllWaiting) {
+				return true;
+			}
+			Thread.sleep(1);
+		}
+		return false;
+	}
+
+	@Test
+	public void testFailedComputationIsRetried() {
+		final AtomicInteger noComputations = new AtomicInteger();
+		RenditionGenerator generator = new RenditionGenerator() {
+			@Override
+			protected Image createImage(PhotoId photoId, PhotoSize photoSize) throws Exception {
+				if (noComputations.incrementAndGet() == 1) {
+					throw new IllegalStateException("scaling failed");
+				}
+				return image;
+			}
+		};
+
+		assertNull(generator.getOrCreateImage(new PhotoId(4712), PhotoSize.SMALL));
+		assertSame(image, generator.getOrCreateImage(new PhotoId(4712), PhotoSize.SMALL));
+		assertEquals(2, noComputations.get());
+	}
+}
@@ -0,0 +1,89 @@
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link TagTrie}.
+ */
+public class TagTrieTest {
+
+	private TagTrie tagTrie;
+
+	@Before
+	public void setUp() {
+		tagTrie = new TagTrie();
+		tagTrie.increment("flower");
+		tagTrie.increment("flower");
+		tagTrie.increment("flowers");
+		tagTrie.increment("flow");
+		tagTrie.increment("forest");
+	}
+
+	@Test
+	public void testCompletionsAreOrderedByUse() {
+		assertEquals(Arrays.asList("flower", "flow", "flowers"), tagTrie.getCompletions("flo", 10));
+		assertEquals(Collections.singletonList("flower"), tagTrie.getCompletions("f", 1));
+		assertTrue(tagTrie.getCompletions("x", 10).isEmpty());
+	}
+
+	@Test
+	public void testSimilarTags() {
+		assertEquals(Arrays.asList("flower", "flow"), tagTrie.getSimilar("flowr", 1, 10));
+		assertEquals(Arrays.asList("flower", "flowers"), tagTrie.getSimilar("flowerz", 1, 10));
+		assertEquals(Collections.singletonList("forest"), tagTrie.getSimilar("frost", 2, 10));
+		assertTrue(tagTrie.getSimilar("tulip", 2, 10).isEmpty());
+	}
+
+	@Test
+	public void testDecrementRemovesUnusedTags() {
+		tagTrie.decrement("flowers");
+		tagTrie.decrement("flower");
+
+		assertEquals(0, tagTrie.getCount("flowers"));
+		assertEquals(1, tagTrie.getCount("flower"));
+		assertEquals(3, tagTrie.getNoTags());
+		assertEquals(Arrays.asList("flow", "flower"), tagTrie.getCompletions("flow", 10));
+	}
+
+	@Test
+	public void testTopTagsMatchFullWalk() {
+		Random random = new Random(42);
+		String[] tags = new String[60];
+		for (int i = 0; i < tags.length; i++) {
+			tags[i] = Integer.toString(i * 7, 4);
+		}
+		for (int i = 0; i < 2000; i++) {
+			String tag = tags[random.nextInt(tags.length)];
+			if (random.nextInt(3) == 0) {
+				tagTrie.decrement(tag);
+			} else {
+				tagTrie.increment(tag);
+			}
+		}
+
+		for (String prefix : Arrays.asList("", "1", "2", "10", "33")) {
+			List<String> allCompletions = tagTrie.getCompletions(prefix, Integer.MAX_VALUE);
+			List<String> expected = allCompletions.subList(0, Math.min(TagTrie.MAX_TOP_TAGS, allCompletions.size()));
+			assertEquals(expected, tagTrie.getCompletions(prefix, TagTrie.MAX_TOP_TAGS));
+		}
+	}
+
+	@Test
+	public void testCorrectTyposInQuery() {
+		PhotoTagIndex index = new PhotoTagIndex();
+		index.updatePhoto(PhotoId.getNextId(), Arrays.asList("tg:flower", "tg:red", "tg:tulip"));
+
+		assertEquals("flower, red | -tulip", PhotoQuery.correctTypos("flowr, red | -tulp", index));
+		assertEquals("rde", PhotoQuery.correctTypos("rde", index));
+	}
+
+}
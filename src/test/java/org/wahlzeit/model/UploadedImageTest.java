@@ -0,0 +1,69 @@
+package org.wahlzeit.model;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link UploadedImage}.
+ */
+public class UploadedImageTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testUploadIsStreamedToFile() throws IOException {
+		byte[] data = createData(3 * UploadedImage.BUFFER_SIZE + 17);
+
+		UploadedImage upload = UploadedImage.receive(new ByteArrayInputStream(data), folder.getRoot(), data.length);
+
+		assertEquals(data.length, upload.getLength());
+		assertEquals(folder.getRoot(), upload.getFile().getParentFile());
+		assertArrayEquals(data, upload.getImage().getImageData());
+		assertSame(upload.getImage(), upload.getImage());
+	}
+
+	@Test
+	public void testOversizedUploadIsRejected() throws IOException {
+		byte[] data = createData(UploadedImage.BUFFER_SIZE + 1);
+
+		try {
+			UploadedImage.receive(new ByteArrayInputStream(data), folder.getRoot(), UploadedImage.BUFFER_SIZE);
+			fail();
+		} catch (UploadedImage.SizeLimitExceededException ex) {
+			// expected
+		}
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testDisposeDeletesFile() throws IOException {
+		UploadedImage upload = UploadedImage.receive(new ByteArrayInputStream(createData(10)), folder.getRoot(), 10);
+		File file = upload.getFile();
+		assertTrue(file.exists());
+
+		upload.dispose();
+
+		assertFalse(file.exists());
+	}
+
+	private byte[] createData(int length) {
+		byte[] result = new byte[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = (byte) (i * 31);
+		}
+		return result;
+	}
+}
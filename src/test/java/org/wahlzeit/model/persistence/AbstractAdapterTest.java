@@ -5,11 +5,16 @@ import com.google.appengine.api.images.ImagesServiceFactory;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.wahlzeit.model.PhotoSize;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.EnumSet;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -128,4 +133,20 @@ public abstract class AbstractAdapterTest {
 		exists = imageStorage.doesImageExist("wrong file name", 1);
 		assert !exists;
 	}
+
+	@Test
+	public void testImageSizes() {
+		assertTrue(imageStorage.getImageSizes("noSizes").isEmpty());
+
+		try {
+			imageStorage.writeImage(smallTestImage, "someSizes", 0);
+			imageStorage.writeImage(smallTestImage, "someSizes", 3);
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+
+		assertEquals(EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM), imageStorage.getImageSizes("someSizes"));
+		assertTrue(imageStorage.doesImageExist("someSizes", 3));
+		assertFalse(imageStorage.doesImageExist("someSizes", 4));
+	}
 }
@@ -2,16 +2,30 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.RuleChain;
 import org.junit.rules.TestRule;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
 import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -38,12 +52,114 @@ public class DatastoreAdapterTest extends AbstractAdapterTest {
 	}
 
 
-	@Test(expected = ArrayIndexOutOfBoundsException.class)
-	public void testUpperSizeLimit() {
-		try {
-			imageStorage.writeImage(tooLargeTestImage, "blub", 1);
-		} catch (IOException e) {
-			fail("IOException should not be thrown!");
+	@Test
+	public void testManifestIsCreatedForImagesWithoutManifest() {
+		final DatastoreAdapter.ImageWrapper imageWrapper = new DatastoreAdapter.ImageWrapper("legacy" + 2);
+		imageWrapper.setImage(smallTestImage);
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				OfyService.ofy().save().entity(imageWrapper).now();
+			}
+		});
+
+		assertTrue(imageStorage.doesImageExist("legacy", 2));
+		assertFalse(imageStorage.doesImageExist("legacy", 1));
+
+		DatastoreAdapter.ImageManifest manifest = ObjectifyService.run(new Work<DatastoreAdapter.ImageManifest>() {
+			@Override
+			public DatastoreAdapter.ImageManifest run() {
+				return OfyService.ofy().load().type(DatastoreAdapter.ImageManifest.class).id("legacy").now();
+			}
+		});
+		assertEquals(EnumSet.of(PhotoSize.SMALL), manifest.getSizes());
+	}
+
+	@Test
+	public void testAddToManifestKeepsSizesOfConcurrentWriters() {
+		final DatastoreAdapter adapter = (DatastoreAdapter) imageStorage;
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				// each writer adds its bit to the stored manifest instead of saving a copy read earlier
+				adapter.addToManifest("concurrent", PhotoSize.MEDIUM);
+				adapter.addToManifest("concurrent", PhotoSize.THUMB);
+			}
+		});
+
+		assertEquals(EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM), imageStorage.getImageSizes("concurrent"));
+	}
+
+	@Test
+	public void testOpenImageReturnsRecordedETag() throws IOException {
+		imageStorage.writeImage(smallTestImage, "tagged", 4);
+
+		StoredImage storedImage = imageStorage.openImage("tagged", 4);
+		assertEquals(StoredImage.computeETag(smallTestImage.getImageData()), storedImage.getETag());
+		assertTrue(storedImage.getLastModified() > 0);
+		assertEquals(smallTestImage.getImageData().length, storedImage.getLength());
+	}
+
+	@Test
+	public void testImagesLargerThanOneEntityAreChunked() throws IOException {
+		imageStorage.writeImage(tooLargeTestImage, "blub", 1);
+
+		Image image = (Image) imageStorage.readImage("blub", 1);
+		assertArrayEquals(tooLargeTestImage.getImageData(), image.getImageData());
+		assertEquals(2, countChunks("blub1/"));
+	}
+
+	@Test
+	public void testChunkedImageIsStreamedByRange() throws IOException {
+		byte[] data = new byte[5 * DatastoreAdapter.ImageWrapper.CHUNK_SIZE / 2];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data), "streamed", 5);
+
+		StoredImage storedImage = imageStorage.openImage("streamed", 5);
+		assertTrue(storedImage instanceof DatastoreAdapter.ChunkedStoredImage);
+		assertEquals(data.length, storedImage.getLength());
+		assertEquals(StoredImage.computeETag(data), storedImage.getETag());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		storedImage.writeTo(out);
+		assertArrayEquals(data, out.toByteArray());
+
+		int offset = DatastoreAdapter.ImageWrapper.CHUNK_SIZE - 10;
+		out.reset();
+		storedImage.writeTo(out, offset, DatastoreAdapter.ImageWrapper.CHUNK_SIZE + 20);
+		assertArrayEquals(Arrays.copyOfRange(data, offset, offset + DatastoreAdapter.ImageWrapper.CHUNK_SIZE + 20),
+				out.toByteArray());
+	}
+
+	@Test
+	public void testOverwritingChunkedImageDeletesOldChunks() throws IOException {
+		imageStorage.writeImage(tooLargeTestImage, "replaced", 1);
+		imageStorage.writeImage(tooLargeTestImage, "replaced", 1);
+		assertEquals(2, countChunks("replaced1/"));
+
+		imageStorage.writeImage(smallTestImage, "replaced", 1);
+		assertEquals(0, countChunks("replaced1/"));
+		assertArrayEquals(smallTestImage.getImageData(),
+				((Image) imageStorage.readImage("replaced", 1)).getImageData());
+	}
+
+	private int countChunks(final String idPrefix) {
+		List<Key<DatastoreAdapter.ImageChunk>> keys = ObjectifyService.run(
+				new Work<List<Key<DatastoreAdapter.ImageChunk>>>() {
+			@Override
+			public List<Key<DatastoreAdapter.ImageChunk>> run() {
+				return OfyService.ofy().load().type(DatastoreAdapter.ImageChunk.class).keys().list();
+			}
+		});
+
+		int result = 0;
+		for (Key<DatastoreAdapter.ImageChunk> key : keys) {
+			if (key.getName().startsWith(idPrefix)) {
+				result++;
+			}
 		}
+		return result;
 	}
 }
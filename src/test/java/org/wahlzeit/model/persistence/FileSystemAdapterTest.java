@@ -0,0 +1,144 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link FileSystemAdapter}
+ */
+public class FileSystemAdapterTest extends AbstractAdapterTest {
+
+	private Path rootDir;
+
+	@Override
+	protected void storageDependentSetUp() {
+		try {
+			rootDir = Files.createTempDirectory("wahlzeit-photos");
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+		imageStorage = new FileSystemAdapter(rootDir);
+	}
+
+	@Override
+	protected void storageDependentTearDown() {
+		try {
+			Files.walkFileTree(rootDir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+	}
+
+	@Test
+	public void testImagesLargerThanOneMegabyte() throws IOException {
+		byte[] data = new byte[3 * 1024 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data), "large", 5);
+
+		Image image = (Image) imageStorage.readImage("large", 5);
+		assertArrayEquals(data, image.getImageData());
+	}
+
+	@Test
+	public void testOverwriteLeavesNoTemporaryFiles() throws IOException {
+		imageStorage.writeImage(smallTestImage, "overwritten", 1);
+		imageStorage.writeImage(maxSizeTestImage, "overwritten", 1);
+
+		Image image = (Image) imageStorage.readImage("overwritten", 1);
+		assertEquals(maxSizeTestImage.getImageData().length, image.getImageData().length);
+
+		FileSystemAdapter adapter = (FileSystemAdapter) imageStorage;
+		Path photoDir = adapter.getPhotoDir("overwritten");
+		assertEquals(rootDir, photoDir.getParent().getParent());
+
+		List<String> fileNames = new ArrayList<String>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(photoDir)) {
+			for (Path file : files) {
+				fileNames.add(file.getFileName().toString());
+			}
+		}
+		assertEquals(2, fileNames.size());
+		assertTrue(fileNames.contains("1" + FileSystemAdapter.IMAGE_FILE_EXTENSION));
+		assertTrue(fileNames.contains("1" + FileSystemAdapter.ETAG_FILE_EXTENSION));
+	}
+
+	@Test
+	public void testStaleETagFileIsIgnored() throws IOException {
+		byte[] data = {1, 2, 3, 4};
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data), "stale", 2);
+		Path imageFile = ((FileSystemAdapter) imageStorage).getImageFile("stale", 2);
+		// as if the image had been replaced without its ETag file
+		Files.write(imageFile, new byte[] {5, 6, 7});
+
+		String eTag = imageStorage.openImage("stale", 2).getETag();
+
+		assertNotEquals(StoredImage.computeETag(data), eTag);
+	}
+
+	@Test
+	public void testOpenImageStreamsFromFile() throws IOException {
+		byte[] data = new byte[100 * 1024];
+		data[0] = (byte) 0x89;
+		data[1] = 'P';
+		data[2] = 'N';
+		data[3] = 'G';
+		data[data.length - 1] = 42;
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data), "streamed", 2);
+
+		StoredImage storedImage = imageStorage.openImage("streamed", 2);
+		assertTrue(storedImage instanceof FileSystemAdapter.FileStoredImage);
+		assertEquals(data.length, storedImage.getLength());
+		assertEquals("image/png", storedImage.getContentType());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		storedImage.writeTo(out);
+		assertArrayEquals(data, out.toByteArray());
+
+		out.reset();
+		storedImage.writeTo(out, data.length - 2, 2);
+		assertArrayEquals(new byte[]{0, 42}, out.toByteArray());
+
+		assertEquals(StoredImage.computeETag(data), storedImage.getETag());
+		assertTrue(storedImage.getLastModified() > 0);
+
+		assertNull(imageStorage.openImage("streamed", 3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPathsOutsideTheRootDirAreRejected() {
+		imageStorage.doesImageExist("../outside", 1);
+	}
+}
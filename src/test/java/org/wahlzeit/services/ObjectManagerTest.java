@@ -0,0 +1,97 @@
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test class for the batched writes of {@link ObjectManager}.
+ */
+public class ObjectManagerTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private final BatchCountingObjectManager objectManager = new BatchCountingObjectManager();
+
+	@Test
+	public void testUpdateObjectsWritesDirtyObjectsInBatches() {
+		final List<Tag> tags = new ArrayList<Tag>();
+		for (int i = 0; i < 5; i++) {
+			tags.add(new Tag("tg:batch" + i, "batch"));
+		}
+		Tag cleanTag = new Tag("tg:clean", "batch");
+		cleanTag.resetWriteCount();
+		tags.add(cleanTag);
+
+		objectManager.writeBatchSize = 2;
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				objectManager.updateObjects(tags);
+				return null;
+			}
+		});
+
+		assertEquals(3, objectManager.noBatches);
+		assertEquals(5, objectManager.noDependentUpdates);
+		for (Tag tag : tags) {
+			assertFalse(tag.isDirty());
+		}
+
+		int noStoredTags = ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				return OfyService.ofy().load().type(Tag.class).ancestor(ObjectManager.applicationRootKey).
+						filter(Tag.PHOTO_ID, "batch").count();
+			}
+		});
+		assertEquals(5, noStoredTags);
+	}
+
+	@Test
+	public void testUpdateObjectsSkipsCleanObjects() {
+		Tag tag = new Tag("tg:clean", "clean");
+		tag.resetWriteCount();
+		List<Tag> tags = new ArrayList<Tag>();
+		tags.add(tag);
+
+		objectManager.updateObjects(tags);
+
+		assertEquals(0, objectManager.noBatches);
+		assertEquals(0, objectManager.noDependentUpdates);
+	}
+
+	private static class BatchCountingObjectManager extends ObjectManager {
+
+		private int noBatches = 0;
+		private int noDependentUpdates = 0;
+
+		@Override
+		protected void writeObjectBatch(List<? extends Persistent> batch) {
+			if (!batch.isEmpty()) {
+				noBatches++;
+			}
+			super.writeObjectBatch(batch);
+		}
+
+		@Override
+		protected void updateDependents(Persistent obj) {
+			noDependentUpdates++;
+		}
+	}
+}
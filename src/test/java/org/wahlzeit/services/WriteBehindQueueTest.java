@@ -0,0 +1,214 @@
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link WriteBehindQueue}.
+ */
+public class WriteBehindQueueTest {
+
+	private WriteBehindQueue queue;
+	private RecordingObjectManager manager;
+
+	@Before
+	public void setUp() {
+		queue = new WriteBehindQueue();
+		queue.setLimits(3, 60000, 10);
+		manager = new RecordingObjectManager();
+	}
+
+	@Test
+	public void testRepeatedWritesAreCoalesced() {
+		TestObject object = new TestObject();
+		queue.enqueue(manager, object);
+		queue.enqueue(manager, object);
+		queue.enqueue(manager, object);
+
+		assertEquals(1, queue.getSize());
+		assertEquals(0, manager.batches.size());
+
+		queue.flush();
+		assertEquals(1, manager.batches.size());
+		assertEquals(1, manager.batches.get(0).size());
+		assertFalse(object.isDirty());
+		assertEquals(0, queue.getSize());
+	}
+
+	@Test
+	public void testFullBatchIsFlushed() {
+		queue.enqueue(manager, new TestObject());
+		queue.enqueue(manager, new TestObject());
+		assertEquals(0, manager.batches.size());
+
+		queue.enqueue(manager, new TestObject());
+		assertEquals(1, manager.batches.size());
+		assertEquals(3, manager.batches.get(0).size());
+		assertEquals(3, queue.getNoFlushedObjects());
+	}
+
+	@Test
+	public void testLagBoundTriggersFlush() {
+		queue.setLimits(3, 0, 10);
+		queue.enqueue(manager, new TestObject());
+		assertEquals(1, manager.batches.size());
+	}
+
+	@Test
+	public void testFlushSplitsIntoBatches() {
+		queue.setLimits(3, 60000, 10);
+		manager.isFailing = true;
+		for (int i = 0; i < 7; i++) {
+			try {
+				queue.enqueue(manager, new TestObject());
+			} catch (RuntimeException ex) {
+				// keep filling the queue
+			}
+		}
+		manager.isFailing = false;
+		queue.flush();
+
+		assertEquals(0, queue.getSize());
+		assertEquals(3, manager.batches.size());
+		assertEquals(7, manager.batches.get(0).size() + manager.batches.get(1).size() + manager.batches.get(2).size());
+	}
+
+	@Test
+	public void testFailedBatchIsEnqueuedAgain() {
+		queue.enqueue(manager, new TestObject());
+		manager.isFailing = true;
+		try {
+			queue.flush();
+			fail("expected exception");
+		} catch (IllegalStateException ex) {
+			// expected
+		}
+		assertEquals(1, queue.getSize());
+
+		manager.isFailing = false;
+		queue.flush();
+		assertEquals(0, queue.getSize());
+		assertEquals(1, manager.batches.size());
+	}
+
+	@Test
+	public void testFailedFlushIsNotThrownToWriter() {
+		queue.setLimits(3, 0, 10);
+		manager.isFailing = true;
+
+		queue.enqueue(manager, new TestObject());
+
+		assertEquals(1, queue.getSize());
+		manager.isFailing = false;
+		queue.flushIfDue();
+		assertEquals(0, queue.getSize());
+		assertEquals(1, manager.batches.size());
+	}
+
+	@Test
+	public void testFlushIfDueKeepsObjectsWithinLag() {
+		queue.setLimits(3, 60000, 10);
+		queue.enqueue(manager, new TestObject());
+
+		queue.flushIfDue();
+
+		assertEquals(1, queue.getSize());
+		assertEquals(0, manager.batches.size());
+	}
+
+	@Test
+	public void testFullQueueFlushesInCallingThread() {
+		queue.setLimits(3, 60000, 3);
+		for (int i = 0; i < 3; i++) {
+			queue.enqueue(manager, new TestObject());
+		}
+		assertEquals(0, queue.getSize());
+		assertTrue(manager.batches.size() > 0);
+	}
+
+	@Test
+	public void testFailedFlushOfFullQueueIsNotThrownToWriter() {
+		queue.setLimits(2, 60000, 2);
+		manager.isFailing = true;
+
+		for (int i = 0; i < 3; i++) {
+			queue.enqueue(manager, new TestObject());
+		}
+
+		assertEquals(3, queue.getSize());
+		assertEquals(0, manager.batches.size());
+		manager.isFailing = false;
+		queue.enqueue(manager, new TestObject());
+		assertEquals(0, queue.getSize());
+		assertEquals(2, manager.batches.size());
+	}
+
+	@Test
+	public void testFailedBatchDoesNotStopLaterBatches() {
+		TestObject failingObject = new TestObject();
+		manager.failingObject = failingObject;
+		queue.enqueue(manager, failingObject);
+		RecordingObjectManager otherManager = new RecordingObjectManager();
+		queue.enqueue(otherManager, new TestObject());
+
+		try {
+			queue.flush();
+			fail("expected exception");
+		} catch (IllegalStateException ex) {
+			// expected
+		}
+
+		assertEquals(1, queue.getSize());
+		assertEquals(1, otherManager.batches.size());
+		assertTrue(failingObject.isDirty());
+	}
+
+	@Test
+	public void testObjectIsDroppedAfterMaxAttempts() {
+		queue.setMaxAttempts(2);
+		TestObject failingObject = new TestObject();
+		manager.failingObject = failingObject;
+		queue.enqueue(manager, failingObject);
+
+		queue.flushIfIdle();
+		assertEquals(1, queue.getSize());
+		queue.flushIfIdle();
+		assertEquals(0, queue.getSize());
+		assertEquals(1, queue.getNoDroppedObjects());
+		assertEquals(0, manager.batches.size());
+	}
+
+	private static class TestObject extends DataObject {
+
+		private TestObject() {
+			incWriteCount();
+		}
+	}
+
+	private static class RecordingObjectManager extends ObjectManager {
+
+		private List<List<Persistent>> batches = new ArrayList<List<Persistent>>();
+		private boolean isFailing = false;
+		private Persistent failingObject;
+
+		@Override
+		protected void updateObjects(Collection<? extends Persistent> collection) {
+			if (isFailing || collection.contains(failingObject)) {
+				throw new IllegalStateException("datastore not available");
+			}
+			batches.add(new ArrayList<Persistent>(collection));
+			for (Persistent object : collection) {
+				object.resetWriteCount();
+			}
+		}
+	}
+}
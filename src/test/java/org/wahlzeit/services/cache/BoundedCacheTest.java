@@ -0,0 +1,151 @@
+package org.wahlzeit.services.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link BoundedCache} and its eviction policies.
+ */
+public class BoundedCacheTest {
+
+	@Test
+	public void testLruEvictsLeastRecentlyUsed() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(2, new LruEvictionPolicy<Integer>());
+		cache.put(1, "one");
+		cache.put(2, "two");
+		cache.get(1);
+		cache.put(3, "three");
+
+		assertTrue(cache.containsKey(1));
+		assertFalse(cache.containsKey(2));
+		assertTrue(cache.containsKey(3));
+		assertEquals(1, cache.getStatistics().getEvictionCount());
+	}
+
+	@Test
+	public void testWeightBound() {
+		Weigher<Integer, String> byLength = new Weigher<Integer, String>() {
+			public long weigh(Integer key, String value) {
+				return value.length();
+			}
+		};
+		BoundedCache<Integer, String> cache =
+				new BoundedCache<Integer, String>(10, new LruEvictionPolicy<Integer>(), byLength);
+		cache.put(1, "12345");
+		cache.put(2, "12345");
+		assertEquals(10, cache.getWeight());
+
+		cache.put(3, "1");
+		assertEquals(6, cache.getWeight());
+		assertFalse(cache.containsKey(1));
+
+		cache.remove(2);
+		assertEquals(1, cache.getWeight());
+	}
+
+	@Test
+	public void testStatistics() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, new LruEvictionPolicy<Integer>());
+		cache.put(1, "one");
+		cache.get(1);
+		cache.get(2);
+
+		assertEquals(1, cache.getStatistics().getHitCount());
+		assertEquals(1, cache.getStatistics().getMissCount());
+		assertEquals(0.5, cache.getStatistics().getHitRate(), 0.0001);
+	}
+
+	@Test
+	public void testPutIfAbsentKeepsExistingValue() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, new LruEvictionPolicy<Integer>());
+		assertEquals("one", cache.putIfAbsent(1, "one"));
+		assertEquals("one", cache.putIfAbsent(1, "uno"));
+		assertEquals("one", cache.get(1));
+	}
+
+	@Test
+	public void testEvictionListener() {
+		final List<Integer> evicted = new ArrayList<Integer>();
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(1, new LruEvictionPolicy<Integer>());
+		cache.setEvictionListener(new EvictionListener<Integer, String>() {
+			public void onEviction(Integer key, String value) {
+				evicted.add(key);
+			}
+		});
+		cache.put(1, "one");
+		cache.put(2, "two");
+
+		assertEquals(1, evicted.size());
+		assertEquals(Integer.valueOf(1), evicted.get(0));
+	}
+
+	@Test
+	public void testEvictedValueIsPendingWhileListenerRuns() {
+		final List<String> pending = new ArrayList<String>();
+		final BoundedCache<Integer, String> cache =
+				new BoundedCache<Integer, String>(1, new LruEvictionPolicy<Integer>());
+		cache.setEvictionListener(new EvictionListener<Integer, String>() {
+			public void onEviction(Integer key, String value) {
+				pending.add(cache.getPendingEviction(key));
+			}
+		});
+		cache.put(1, "one");
+		cache.put(2, "two");
+
+		assertEquals(Collections.singletonList("one"), pending);
+		assertNull(cache.getPendingEviction(1));
+		assertNull(cache.get(1));
+	}
+
+	@Test
+	public void testTinyLfuKeepsFrequentKeysDuringScan() {
+		BoundedCache<Integer, String> cache =
+				new BoundedCache<Integer, String>(100, new TinyLfuEvictionPolicy<Integer>());
+		for (int i = 0; i < 100; i++) {
+			cache.put(i, "hot");
+		}
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 10; i++) {
+				cache.get(i);
+			}
+		}
+
+		for (int i = 1000; i < 2000; i++) {
+			cache.put(i, "scan");
+		}
+
+		assertEquals(100, cache.size());
+		for (int i = 0; i < 10; i++) {
+			assertTrue("hot key " + i + " was evicted", cache.containsKey(i));
+		}
+	}
+
+	@Test
+	public void testCreateEvictionPolicy() {
+		assertTrue(BoundedCache.createEvictionPolicy("LRU") instanceof LruEvictionPolicy);
+		assertTrue(BoundedCache.createEvictionPolicy("tinylfu") instanceof TinyLfuEvictionPolicy);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownEvictionPolicy() {
+		BoundedCache.createEvictionPolicy("fifo");
+	}
+
+	@Test
+	public void testClear() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, new LruEvictionPolicy<Integer>());
+		cache.put(1, "one");
+		cache.clear();
+		assertNull(cache.get(1));
+		assertEquals(0, cache.getWeight());
+	}
+
+}
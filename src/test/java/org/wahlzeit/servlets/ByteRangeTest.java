@@ -0,0 +1,62 @@
+package org.wahlzeit.servlets;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link ByteRange}.
+ */
+public class ByteRangeTest {
+
+	@Test
+	public void testSingleRanges() {
+		assertEquals(Collections.singletonList(new ByteRange(0, 499)), ByteRange.parse("bytes=0-499", 1000));
+		assertEquals(Collections.singletonList(new ByteRange(500, 999)), ByteRange.parse("bytes=500-", 1000));
+		assertEquals(Collections.singletonList(new ByteRange(900, 999)), ByteRange.parse("bytes=-100", 1000));
+		assertEquals(Collections.singletonList(new ByteRange(0, 999)), ByteRange.parse("bytes=-2000", 1000));
+		assertEquals(Collections.singletonList(new ByteRange(990, 999)), ByteRange.parse("bytes=990-5000", 1000));
+	}
+
+	@Test
+	public void testMultipleRangesAreSortedAndMerged() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=500-599, 0-99, 50-149, 150-199", 1000);
+		assertEquals(Arrays.asList(new ByteRange(0, 199), new ByteRange(500, 599)), ranges);
+	}
+
+	@Test
+	public void testUnsatisfiableRanges() {
+		assertTrue(ByteRange.parse("bytes=1000-1100", 1000).isEmpty());
+		assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+	}
+
+	@Test
+	public void testInvalidHeadersAreIgnored() {
+		assertNull(ByteRange.parse(null, 1000));
+		assertNull(ByteRange.parse("items=0-1", 1000));
+		assertNull(ByteRange.parse("bytes=5-1", 1000));
+		assertNull(ByteRange.parse("bytes=a-b", 1000));
+		assertNull(ByteRange.parse("bytes=100", 1000));
+	}
+
+	@Test
+	public void testTooManyRangesAreCoalesced() {
+		StringBuilder header = new StringBuilder("bytes=");
+		for (int i = 0; i < 2 * ByteRange.MAX_NO_RANGES; i++) {
+			header.append(i > 0 ? "," : "").append(10 * i).append("-").append(10 * i + 1);
+		}
+		List<ByteRange> ranges = ByteRange.parse(header.toString(), 1000);
+		assertEquals(Collections.singletonList(new ByteRange(0, 10 * (2 * ByteRange.MAX_NO_RANGES - 1) + 1)), ranges);
+	}
+
+	@Test
+	public void testContentRange() {
+		assertEquals("bytes 0-499/1000", new ByteRange(0, 499).asContentRange(1000));
+	}
+}
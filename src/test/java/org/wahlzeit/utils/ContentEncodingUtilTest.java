@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ContentEncodingUtil class.
+ */
+public class ContentEncodingUtilTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsGzipAccepted() {
+		assertTrue(ContentEncodingUtil.isGzipAccepted("gzip, deflate, br"));
+		assertTrue(ContentEncodingUtil.isGzipAccepted("br;q=1.0, GZIP;q=0.8"));
+		assertTrue(ContentEncodingUtil.isGzipAccepted("*"));
+		assertTrue(ContentEncodingUtil.isGzipAccepted("x-gzip"));
+
+		assertFalse(ContentEncodingUtil.isGzipAccepted(null));
+		assertFalse(ContentEncodingUtil.isGzipAccepted(""));
+		assertFalse(ContentEncodingUtil.isGzipAccepted("identity"));
+		assertFalse(ContentEncodingUtil.isGzipAccepted("gzip;q=0"));
+		assertFalse(ContentEncodingUtil.isGzipAccepted("gzip;q=0, *"));
+		assertFalse(ContentEncodingUtil.isGzipAccepted("deflate, *;q=0"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGzipRoundTrip() throws IOException {
+		StringBuilder html = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			html.append("<div class=\"photo\">Photo ").append(i).append("</div>\n");
+		}
+		byte[] bytes = html.toString().getBytes("UTF-8");
+
+		byte[] compressed = ContentEncodingUtil.gzip(bytes);
+
+		assertTrue(compressed.length < bytes.length / 4);
+		assertArrayEquals(bytes, gunzip(compressed));
+	}
+
+	/**
+	 *
+	 */
+	protected byte[] gunzip(byte[] bytes) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			byte[] buffer = new byte[1024];
+			for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+				result.write(buffer, 0, n);
+			}
+		}
+		return result.toByteArray();
+	}
+
+}
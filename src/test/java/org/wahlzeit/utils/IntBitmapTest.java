@@ -0,0 +1,100 @@
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link IntBitmap}.
+ */
+public class IntBitmapTest {
+
+	@Test
+	public void testAddRemoveContains() {
+		IntBitmap bitmap = new IntBitmap();
+		bitmap.add(5);
+		bitmap.add(70000);
+		bitmap.add(5);
+
+		assertTrue(bitmap.contains(5));
+		assertTrue(bitmap.contains(70000));
+		assertFalse(bitmap.contains(6));
+		assertEquals(2, bitmap.getCardinality());
+
+		bitmap.remove(5);
+		assertFalse(bitmap.contains(5));
+		assertArrayEquals(new int[]{70000}, bitmap.toArray());
+
+		bitmap.remove(70000);
+		assertTrue(bitmap.isEmpty());
+	}
+
+	@Test
+	public void testDenseContainer() {
+		IntBitmap bitmap = new IntBitmap();
+		for (int i = 0; i < 10000; i++) {
+			bitmap.add(2 * i);
+		}
+
+		assertEquals(10000, bitmap.getCardinality());
+		assertEquals(0, bitmap.select(0));
+		assertEquals(19998, bitmap.select(9999));
+
+		for (int i = 0; i < 9000; i++) {
+			bitmap.remove(2 * i);
+		}
+		assertEquals(1000, bitmap.getCardinality());
+		assertEquals(18000, bitmap.select(0));
+	}
+
+	@Test
+	public void testSetOperationsMatchBitSet() {
+		Random random = new Random(42);
+		IntBitmap a = new IntBitmap();
+		IntBitmap b = new IntBitmap();
+		BitSet expectedA = new BitSet();
+		BitSet expectedB = new BitSet();
+		for (int i = 0; i < 20000; i++) {
+			int x = random.nextInt(200000);
+			int y = random.nextInt(i % 2 == 0 ? 200000 : 20000);
+			a.add(x);
+			expectedA.set(x);
+			b.add(y);
+			expectedB.set(y);
+		}
+
+		BitSet and = (BitSet) expectedA.clone();
+		and.and(expectedB);
+		assertArrayEquals(toArray(and), a.and(b).toArray());
+
+		BitSet or = (BitSet) expectedA.clone();
+		or.or(expectedB);
+		assertArrayEquals(toArray(or), a.or(b).toArray());
+
+		BitSet andNot = (BitSet) expectedA.clone();
+		andNot.andNot(expectedB);
+		assertArrayEquals(toArray(andNot), a.andNot(b).toArray());
+		assertArrayEquals(toArray(expectedA), a.toArray());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeValue() {
+		new IntBitmap().add(-1);
+	}
+
+	private int[] toArray(BitSet bitSet) {
+		int[] result = new int[bitSet.cardinality()];
+		int k = 0;
+		for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+			result[k++] = i;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.wahlzeit.webparts;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link FragmentCache}.
+ */
+public class FragmentCacheTest {
+
+	private final FragmentCache cache = new FragmentCache();
+
+	@Before
+	public void setUp() {
+		cache.clear();
+	}
+
+	@Test
+	public void testStringFragmentIsEncodedOnce() throws IOException {
+		String footer = "Über uns";
+
+		RenderedFragment fragment = cache.getStringFragment("de", "footer", footer);
+
+		assertSame(fragment, cache.getStringFragment("de", "footer", footer));
+		assertEquals(footer, new String(asBytes(fragment), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testChangedStringReplacesFragment() {
+		RenderedFragment fragment = cache.getStringFragment("en", "footer", "old");
+
+		RenderedFragment newFragment = cache.getStringFragment("en", "footer", "new");
+
+		assertNotSame(fragment, newFragment);
+		assertEquals("new", newFragment.asString());
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	public void testNullString() {
+		assertNull(cache.getStringFragment("en", "mission", null));
+	}
+
+	@Test
+	public void testFragmentsAreSplicedIntoLists() throws IOException {
+		WebPartTemplate template = new WebPartTemplate("en/infos/Test");
+		template.initialize("<p>static</p>");
+		RenderedFragment fragment = RenderedFragment.render(template);
+		WritableList list = new WritableList().append(fragment).append(cache.getStringFragment("en", "x", "!"));
+
+		assertEquals("<p>static</p>!", new String(asBytes(list), StandardCharsets.UTF_8));
+		assertTrue(fragment.isRenderedFrom(template));
+	}
+
+	private byte[] asBytes(Writable writable) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writable.writeOn(out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,118 @@
+package org.wahlzeit.webparts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wahlzeit.services.ConfigDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test class for preloading and reloading in {@link WebPartTemplateService}.
+ */
+public class WebPartTemplateServiceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private WebPartTemplateService service;
+
+	@Before
+	public void setUp() throws IOException {
+		writeTemplate("default/en/pages/Page", "default page");
+		writeTemplate("custom/en/pages/Page", "custom page");
+		writeTemplate("custom/en/infos/Info", "custom info");
+		writeTemplate("default/de/pages/Page", "Seite");
+
+		service = new WebPartTemplateService();
+		service.setTemplatesDir(new ConfigDir(folder.getRoot().getPath(), "templates"));
+		service.loadTemplates();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		service.stopWatching();
+	}
+
+	@Test
+	public void testAllTemplatesArePreloaded() {
+		assertEquals("default page", service.getTemplate("en", "pages/Page").asString());
+		assertEquals("custom info", service.getTemplate("en", "infos/Info").asString());
+		assertEquals("Seite", service.getTemplate("de", "pages/Page").asString());
+	}
+
+	@Test
+	public void testUnknownTemplateIsNotSearchedForAfterPreloading() throws IOException {
+		writeTemplate("default/en/pages/Late", "late");
+
+		assertNull(service.getTemplate("en", "pages/Late"));
+	}
+
+	@Test
+	public void testReloadTemplate() throws IOException {
+		WebPartTemplate oldTemplate = service.getTemplate("en", "pages/Page");
+		writeTemplate("default/en/pages/Page", "new {$value}");
+
+		service.reloadTemplate("en/pages/Page");
+
+		WebPartTemplate newTemplate = service.getTemplate("en", "pages/Page");
+		assertEquals("new ", newTemplate.asString());
+		assertEquals(1, newTemplate.getNoSlots());
+		assertEquals("default page", oldTemplate.asString());
+	}
+
+	@Test
+	public void testRemovedDefaultFallsBackToCustom() throws IOException {
+		Files.delete(getTemplateFile("default/en/pages/Page").toPath());
+
+		service.reloadTemplate("en/pages/Page");
+
+		assertEquals("custom page", service.getTemplate("en", "pages/Page").asString());
+	}
+
+	@Test
+	public void testChangedFileIsReloadedByWatcher() throws Exception {
+		WebPartTemplate oldTemplate = service.getTemplate("de", "pages/Page");
+		service.startWatching();
+
+		writeTemplate("default/de/pages/Page", "Neue Seite");
+
+		WebPartTemplate template = oldTemplate;
+		for (int i = 0; i < 200 && template == oldTemplate; i++) {
+			Thread.sleep(50);
+			template = service.getTemplate("de", "pages/Page");
+		}
+		assertNotNull(template);
+		assertEquals("Neue Seite", template.asString());
+	}
+
+	@Test
+	public void testStartWatchingTwice() throws IOException {
+		service.startWatching();
+		Thread watchThread = service.watchThread;
+
+		service.startWatching();
+
+		assertSame(watchThread, service.watchThread);
+	}
+
+	private File getTemplateFile(String shortName) {
+		return new File(folder.getRoot(), "templates" + File.separator + shortName + ".html");
+	}
+
+	private void writeTemplate(String shortName, String source) throws IOException {
+		File file = getTemplateFile(shortName);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,76 @@
+package org.wahlzeit.webparts;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test class for rendering {@link WebPart}s from compiled {@link WebPartTemplate}s.
+ */
+public class WebPartTest {
+
+	@Test
+	public void testRepeatedKeysShareOneSlot() {
+		WebPartTemplate template = createTemplate("<p>{$name}</p><i>{$name}</i>{$other}");
+
+		assertEquals(2, template.getNoSlots());
+		assertEquals(4, template.getNoChunks());
+		assertEquals(template.getSlot("name"), template.getChunkSlot(0));
+		assertEquals(template.getSlot("name"), template.getChunkSlot(1));
+		assertEquals(-1, template.getSlot("unknown"));
+	}
+
+	@Test
+	public void testWriteOnWriter() throws IOException {
+		WebPart part = new WebPart(createTemplate("<p>{$name}</p><i>{$name}</i>{$missing}!"));
+		part.addString("name", "Grüße");
+		part.addString("unknown", "ignored");
+
+		assertEquals("<p>Grüße</p><i>Grüße</i>!", asString(part));
+		assertNull(part.getValue("unknown"));
+	}
+
+	@Test
+	public void testWriteOnOutputStreamMatchesWriter() throws IOException {
+		WebPart inner = new WebPart(createTemplate("<b>{$value}</b>"));
+		inner.addString("value", "Straße");
+		WritableList list = new WritableList().append(inner).append(inner);
+		WebPart outer = new WebPart(createTemplate("ä{$list}ö{$part}ü"));
+		outer.addWritable("list", list);
+		outer.addWritable("part", inner);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		outer.writeOn(out);
+
+		assertEquals(asString(outer), new String(out.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals("ä<b>Straße</b><b>Straße</b>ö<b>Straße</b>ü", asString(outer));
+	}
+
+	@Test
+	public void testTemplateWithoutSlots() throws IOException {
+		WebPart part = new WebPart(createTemplate("plain"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		part.writeOn(out);
+
+		assertEquals("plain", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	private WebPartTemplate createTemplate(String source) {
+		WebPartTemplate result = new WebPartTemplate("test");
+		result.initialize(source);
+		return result;
+	}
+
+	private String asString(Writable writable) throws IOException {
+		StringWriter writer = new StringWriter();
+		writable.writeOn(writer);
+		return writer.toString();
+	}
+}